@@ -0,0 +1,97 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.util.Supplier;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.AsyncRestOperations;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.IOException;
+
+
+/**
+ * Supplier that returns an instance of AsyncRestOperations backed by a non-blocking,
+ * pooled HttpAsyncClient with the same connection limits and timeouts as
+ * {@link RestOperationsSupplier}.
+ */
+@Component
+public class AsyncRestOperationsSupplier implements Supplier<AsyncRestOperations>, DisposableBean {
+    @Autowired
+    TeamcitySettings settings;
+
+    // one client and pool shared by every AsyncRestOperations supplied, closed with the bean
+    private volatile PoolingNHttpClientConnectionManager connectionManager;
+    private CloseableHttpAsyncClient httpClient;
+
+    @Override
+    public AsyncRestOperations get() {
+        HttpComponentsAsyncClientHttpRequestFactory requestFactory = new HttpComponentsAsyncClientHttpRequestFactory(httpClient());
+        requestFactory.setConnectTimeout(settings.getConnectTimeout());
+        requestFactory.setConnectionRequestTimeout(settings.getConnectTimeout());
+        requestFactory.setReadTimeout(settings.getReadTimeout());
+        return new AsyncRestTemplate(requestFactory);
+    }
+
+    private synchronized CloseableHttpAsyncClient httpClient() {
+        if (httpClient == null) {
+            PoolingNHttpClientConnectionManager manager;
+            try {
+                manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT),
+                        RegistryBuilder.<SchemeIOSessionStrategy>create()
+                                .register("http", NoopIOSessionStrategy.INSTANCE)
+                                .register("https", new SSLIOSessionStrategy(RestOperationsSupplier.trustAllSslContext(), new NoopHostnameVerifier()))
+                                .build());
+            } catch (IOReactorException e) {
+                throw new IllegalStateException("Creating the async connection pool failed", e);
+            }
+            manager.setMaxTotal(settings.getMaxConnections());
+            manager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+
+            ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+                long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAlive > 0 ? keepAlive : settings.getKeepAlive();
+            };
+            // the I/O reactor is only started by the first request
+            httpClient = HttpAsyncClients.custom()
+                    .setConnectionManager(manager)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .build();
+            connectionManager = manager;
+        }
+        return httpClient;
+    }
+
+    /**
+     * Stops the I/O reactor and closes the pooled connections.
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * @return the leased, pending, available and max connections of the pool, or null before the first {@link #get()}
+     */
+    public PoolStats getPoolStats() {
+        PoolingNHttpClientConnectionManager manager = connectionManager;
+        return manager == null ? null : manager.getTotalStats();
+    }
+}
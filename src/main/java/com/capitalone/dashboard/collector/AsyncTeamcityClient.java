@@ -0,0 +1,22 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking client for fetching build details from Teamcity, used in the ASYNC detail
+ * fetch mode. Failed requests complete with null, like their {@link TeamcityClient}
+ * counterparts. Jobs and build lists are always fetched with the {@link TeamcityClient}.
+ */
+public interface AsyncTeamcityClient {
+
+    /**
+     * Fetch full populated build information for a build without blocking the caller.
+     *
+     * @param buildUrl the url of the build
+     * @param instanceUrl the URL for the Teamcity instance
+     * @return a future Build instance or null
+     */
+    CompletableFuture<Build> getBuildDetails(String buildUrl, String instanceUrl);
+}
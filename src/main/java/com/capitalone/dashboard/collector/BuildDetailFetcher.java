@@ -0,0 +1,124 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fetches build details in the configured {@link TeamcitySettings.DetailFetchMode}. Concurrent
+ * modes keep at most {@link TeamcitySettings#getMaxRequestsPerServer()} requests in flight per
+ * Teamcity server.
+ */
+@Component
+public class BuildDetailFetcher implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BuildDetailFetcher.class);
+
+    private final TeamcityClient teamcityClient;
+    private final AsyncTeamcityClient asyncTeamcityClient;
+    private final TeamcitySettings settings;
+    private final Map<String, Semaphore> permitsByServer = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @Autowired
+    public BuildDetailFetcher(TeamcityClient teamcityClient, AsyncTeamcityClient asyncTeamcityClient, TeamcitySettings settings) {
+        this.teamcityClient = teamcityClient;
+        this.asyncTeamcityClient = asyncTeamcityClient;
+        this.settings = settings;
+    }
+
+    /**
+     * @return true if details are fetched in the background, so the builds of many jobs can be fetched together
+     */
+    public boolean isConcurrent() {
+        return settings.getDetailFetchMode() != TeamcitySettings.DetailFetchMode.SEQUENTIAL;
+    }
+
+    /**
+     * Starts fetching the details of the given builds of a job. In SEQUENTIAL mode the details are
+     * fetched before returning, in the concurrent modes this waits while the job's server has the
+     * maximum number of requests in flight.
+     *
+     * @return the future details by build number, completing with null for builds that failed or are still running
+     */
+    public Map<String, CompletableFuture<Build>> fetch(TeamcityProject job, List<Build> buildSummaries) {
+        Map<String, CompletableFuture<Build>> details = new LinkedHashMap<>();
+        for (Build buildSummary : buildSummaries) {
+            details.put(buildSummary.getNumber(), fetch(buildSummary.getBuildUrl(), job.getInstanceUrl()));
+        }
+        return details;
+    }
+
+    private CompletableFuture<Build> fetch(String buildUrl, String instanceUrl) {
+        if (settings.getDetailFetchMode() == TeamcitySettings.DetailFetchMode.SEQUENTIAL) {
+            return CompletableFuture.completedFuture(teamcityClient.getBuildDetails(buildUrl, instanceUrl));
+        }
+        // the permit is taken by the caller before the request is handed over, so a busy server holds
+        // back its own collection instead of the threads other servers need
+        Semaphore permits = permits(instanceUrl);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Build> details;
+        try {
+            details = settings.getDetailFetchMode() == TeamcitySettings.DetailFetchMode.ASYNC
+                    ? asyncTeamcityClient.getBuildDetails(buildUrl, instanceUrl)
+                    : CompletableFuture.supplyAsync(() -> teamcityClient.getBuildDetails(buildUrl, instanceUrl), executor());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return details.whenComplete((build, e) -> permits.release());
+    }
+
+    private Semaphore permits(String instanceUrl) {
+        return permitsByServer.computeIfAbsent(instanceUrl, url -> new Semaphore(Math.max(1, settings.getMaxRequestsPerServer())));
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = newVirtualThreadExecutor();
+        }
+        return executor;
+    }
+
+    /**
+     * Uses a virtual thread per task where the JVM supports it. The collector is built for Java 8,
+     * so the factory is looked up at runtime; older JVMs get a platform pool sized to the connection pool.
+     * Tasks only reach the pool with their server's permit, so they never wait for one on a pool thread.
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOG.info("Fetching build details on virtual threads");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            int threads = Math.max(1, settings.getMaxConnections());
+            LOG.info("Virtual threads are not available, fetching build details on {} platform threads", threads);
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.repository.TeamcityBuildRepository;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind stage between fetching and persisting new builds. Builds are queued and written
+ * in bulk by a dedicated thread whenever a batch is full or the flush interval has passed, so
+ * Teamcity and Mongo are busy at the same time. A full queue blocks the producer until the
+ * writer catches up. Should the writer die, builds it can no longer write are reported as failed
+ * instead of blocking the producer.
+ */
+class BuildWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(BuildWriter.class);
+
+    // queued by drain() to stop the writer once everything before it is written
+    private static final Build END = new Build();
+
+    private final TeamcityBuildRepository teamcityBuildRepository;
+    private final BlockingQueue<Build> queue;
+    private final int batchSize;
+    private final long flushInterval;
+    private final Set<ObjectId> failedJobs = ConcurrentHashMap.newKeySet();
+    private final Thread writer;
+
+    // how long a blocked producer waits before checking the writer is still alive
+    private static final long ALIVE_CHECK_MILLIS = 1000;
+
+    BuildWriter(TeamcityBuildRepository teamcityBuildRepository, int queueSize, int batchSize, long flushInterval) {
+        this.teamcityBuildRepository = teamcityBuildRepository;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1, flushInterval);
+        this.writer = new Thread(this::run, "teamcity-build-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a build for writing, waiting while the queue is full.
+     */
+    void write(Build build) {
+        try {
+            while (!queue.offer(build, ALIVE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) {
+                    failedJobs.add(build.getCollectorItemId());
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing build " + build.getNumber(), e);
+        }
+    }
+
+    /**
+     * Writes everything still queued and stops the writer.
+     *
+     * @return the ids of the jobs that had builds fail to be written
+     */
+    Set<ObjectId> drain() {
+        boolean interrupted = false;
+        try {
+            boolean ended = false;
+            while (!ended && writer.isAlive()) {
+                try {
+                    ended = queue.offer(END, ALIVE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            Uninterruptibles.joinUninterruptibly(writer);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // left behind by a writer that died
+        for (Build build : queue) {
+            if (build != END) {
+                failedJobs.add(build.getCollectorItemId());
+            }
+        }
+        queue.clear();
+        return failedJobs;
+    }
+
+    private void run() {
+        List<Build> batch = new ArrayList<>(batchSize);
+        try {
+            long deadline = System.currentTimeMillis() + flushInterval;
+            while (true) {
+                Build build;
+                try {
+                    build = queue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // only drain() stops the writer, so nothing queued is lost
+                    continue;
+                }
+                if (build == END) {
+                    flush(batch);
+                    return;
+                }
+                if (build != null) {
+                    batch.add(build);
+                }
+                if (batch.size() >= batchSize || System.currentTimeMillis() >= deadline) {
+                    flush(batch);
+                    deadline = System.currentTimeMillis() + flushInterval;
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("Build writer stopped", t);
+            for (Build build : batch) {
+                failedJobs.add(build.getCollectorItemId());
+            }
+            throw t;
+        }
+    }
+
+    private void flush(List<Build> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            teamcityBuildRepository.upsertBuilds(batch);
+        } catch (Throwable t) {
+            // errors are contained too, so the writer keeps serving the producer
+            LOG.error("Writing " + batch.size() + " builds failed", t);
+            for (Build build : batch) {
+                failedJobs.add(build.getCollectorItemId());
+            }
+        }
+        batch.clear();
+    }
+}
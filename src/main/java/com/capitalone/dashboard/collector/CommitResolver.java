@@ -0,0 +1,132 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.QCommit;
+import com.capitalone.dashboard.model.SCM;
+import com.capitalone.dashboard.repository.CommitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the revisions of fetched builds to stored commits. All revisions of a batch of builds
+ * are looked up with a single query, and resolved commits are kept in a bounded LRU cache since
+ * many builds of different branches and build types point at the same commit.
+ */
+@Component
+public class CommitResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(CommitResolver.class);
+
+    private final CommitRepository commitRepository;
+    private final Map<String, Commit> commitsBySha;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public CommitResolver(CommitRepository commitRepository, TeamcitySettings settings) {
+        this.commitRepository = commitRepository;
+        int capacity = Math.max(1, settings.getCommitCacheSize());
+        this.commitsBySha = Collections.synchronizedMap(new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Replaces the unresolved revision in the source change set of each build with the stored
+     * commit, or clears it when the commit has not been collected yet.
+     */
+    public void resolve(Collection<Build> builds) {
+        Set<String> shas = new LinkedHashSet<>();
+        for (Build build : builds) {
+            String sha = revision(build);
+            if (sha != null) {
+                shas.add(sha);
+            }
+        }
+        if (shas.isEmpty()) {
+            return;
+        }
+
+        Map<String, Commit> commits = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String sha : shas) {
+            Commit commit = commitsBySha.get(sha);
+            if (commit == null) {
+                missing.add(sha);
+            } else {
+                commits.put(sha, commit);
+            }
+        }
+        hits.addAndGet(commits.size());
+        misses.addAndGet(missing.size());
+        if (!missing.isEmpty()) {
+            for (Commit commit : commitRepository.findAll(QCommit.commit.scmRevisionNumber.in(missing))) {
+                // keep the first match of a sha, like the lookup by revision number did
+                if (commits.putIfAbsent(commit.getScmRevisionNumber(), commit) == null) {
+                    commitsBySha.put(commit.getScmRevisionNumber(), commit);
+                }
+            }
+        }
+
+        for (Build build : builds) {
+            String sha = revision(build);
+            if (sha == null) {
+                continue;
+            }
+            Commit commit = commits.get(sha);
+            if (commit == null) {
+                LOG.warn("Commit sha " + sha + " not found in commit repository, skip adding to pipeline commits this time");
+                build.setSourceChangeSet(new ArrayList<>());
+            } else {
+                build.setSourceChangeSet(Collections.singletonList(commit));
+            }
+        }
+    }
+
+    private static String revision(Build build) {
+        if (build.getSourceChangeSet().isEmpty()) {
+            return null;
+        }
+        SCM scm = build.getSourceChangeSet().get(0);
+        return scm instanceof Commit ? null : scm.getScmRevisionNumber();
+    }
+
+    /**
+     * Empties the cache, so commits changed since the last collection are read again, and resets
+     * the hit and miss counts.
+     */
+    public void clear() {
+        commitsBySha.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return the revisions resolved from the cache since the last {@link #clear()}
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the revisions looked up in the database since the last {@link #clear()}
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
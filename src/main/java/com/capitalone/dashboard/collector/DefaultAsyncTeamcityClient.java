@@ -0,0 +1,76 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.util.Supplier;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRequestCallback;
+import org.springframework.web.client.AsyncRestOperations;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncTeamcityClient implementation. Build details are fetched with a non-blocking
+ * AsyncRestTemplate so many requests can be in flight without a thread each. The URLs,
+ * headers and mapping of the requests are those of the {@link DefaultTeamcityClient}.
+ */
+@Component
+public class DefaultAsyncTeamcityClient implements AsyncTeamcityClient {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultAsyncTeamcityClient.class);
+
+    private final DefaultTeamcityClient teamcityClient;
+    private final AsyncRestOperations rest;
+
+    @Autowired
+    public DefaultAsyncTeamcityClient(DefaultTeamcityClient teamcityClient, Supplier<AsyncRestOperations> asyncRestOperationsSupplier) {
+        this.teamcityClient = teamcityClient;
+        this.rest = asyncRestOperationsSupplier.get();
+    }
+
+    @Override
+    public CompletableFuture<Build> getBuildDetails(String buildUrl, String instanceUrl) {
+        LOG.debug("getting build details");
+        String formattedBuildUrl;
+        String url;
+        try {
+            formattedBuildUrl = teamcityClient.formatBuildUrl(buildUrl);
+            url = teamcityClient.buildDetailsUrl(formattedBuildUrl, instanceUrl);
+        } catch (Exception e) {
+            LOG.error("Invalid build url for loading build details. URL=" + buildUrl, e);
+            return CompletableFuture.completedFuture(null);
+        }
+        AsyncRequestCallback requestCallback = request -> teamcityClient.addRequestHeaders(request.getHeaders());
+        ResponseExtractor<TeamcityBuild> responseExtractor = response -> {
+            try {
+                return TeamcityBuildParser.parseBuild(response.getBody());
+            } catch (JsonProcessingException e) {
+                LOG.error("Parsing build: " + formattedBuildUrl, e);
+                return null;
+            }
+        };
+        return toCompletableFuture(rest.execute(url, HttpMethod.GET, requestCallback, responseExtractor))
+                .thenApply(buildDetails -> {
+                    if (buildDetails == null) {
+                        LOG.error("Error getting build details for. URL=" + url);
+                        return null;
+                    }
+                    return teamcityClient.toBuild(buildDetails, formattedBuildUrl);
+                })
+                .exceptionally(e -> {
+                    LOG.error("Error in getting build details. URL=" + formattedBuildUrl, e);
+                    return null;
+                });
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> listenableFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        listenableFuture.addCallback(future::complete, future::completeExceptionally);
+        return future;
+    }
+}
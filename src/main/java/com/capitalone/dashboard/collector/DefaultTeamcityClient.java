@@ -1,8 +1,8 @@
 package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.model.*;
-import com.capitalone.dashboard.repository.CommitRepository;
 import com.capitalone.dashboard.util.Supplier;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -14,10 +14,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestOperations;
 
 import java.io.UnsupportedEncodingException;
@@ -27,13 +30,17 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 
 /**
- * TeamcityClient implementation that uses RestTemplate and JSONSimple to
- * fetch information from Teamcity instances.
+ * TeamcityClient implementation that uses RestTemplate to fetch information from
+ * Teamcity instances. Project structure is parsed with JSONSimple, builds are parsed
+ * straight from the response stream with {@link TeamcityBuildParser}.
  */
 @Component
 public class DefaultTeamcityClient implements TeamcityClient {
@@ -47,109 +54,176 @@ public class DefaultTeamcityClient implements TeamcityClient {
     private static final String BUILD_DETAILS_URL_SUFFIX = "app/rest/builds";
 
     private static final String BUILD_TYPE_DETAILS_URL_SUFFIX = "app/rest/buildTypes";
-    private CommitRepository commitRepository;
+
+    private static final int BUILDS_PAGE_SIZE = 100;
+
+    private static final String BUILD_TYPE_SETTINGS_FIELDS = "buildType(id,settings(property(name,value)))";
 
     @Autowired
-    public DefaultTeamcityClient(Supplier<RestOperations> restOperationsSupplier, TeamcitySettings settings, CommitRepository commitRepository) {
+    public DefaultTeamcityClient(Supplier<RestOperations> restOperationsSupplier, TeamcitySettings settings) {
         this.rest = restOperationsSupplier.get();
         this.settings = settings;
-        this.commitRepository = commitRepository;
     }
 
     @Override
     public Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl) {
+        return getInstanceProjects(instanceUrl, Collections.emptyMap());
+    }
+
+    @Override
+    public Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl, Map<TeamcityProject, Long> lastBuildIds) {
+        return getInstanceProjects(instanceUrl, lastBuildIds, job -> true);
+    }
+
+    @Override
+    public Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl, Map<TeamcityProject, Long> lastBuildIds,
+                                                                                  Predicate<TeamcityProject> due) {
         LOG.debug("Enter getInstanceProjects");
         Map<TeamcityProject, Map<jobData, Set<BaseModel>>> result = new LinkedHashMap<>();
         for (String projectID : settings.getProjectIds()) {
-            JSONArray buildTypes = new JSONArray();
-            recursivelyFindBuildTypes(instanceUrl, projectID, buildTypes);
-            constructProject(result, buildTypes, projectID, instanceUrl);
+            List<JSONObject> buildTypes = findBuildTypes(instanceUrl, projectID);
+            Set<String> deploymentBuildTypes = findDeploymentBuildTypes(instanceUrl, projectID);
+            constructProject(result, buildTypes, deploymentBuildTypes, projectID, instanceUrl, lastBuildIds, due);
         }
         return result;
     }
 
-    private void constructProject(Map<TeamcityProject, Map<jobData, Set<BaseModel>>> result, JSONArray buildTypes, String projectID, String instanceUrl) {
-        for (Object buildType : buildTypes) {
-            JSONObject jsonBuildType = (JSONObject) buildType;
+    private void constructProject(Map<TeamcityProject, Map<jobData, Set<BaseModel>>> result, List<JSONObject> buildTypes,
+                                  Set<String> deploymentBuildTypes, String projectID, String instanceUrl,
+                                  Map<TeamcityProject, Long> lastBuildIds, Predicate<TeamcityProject> due) {
+        for (JSONObject jsonBuildType : buildTypes) {
             final String buildTypeID = getString(jsonBuildType, "id");
             try {
-                if (isDeploymentBuildType(buildTypeID, instanceUrl)) continue;
+                if (deploymentBuildTypes.contains(buildTypeID)) continue;
                 final String projectURL = getString(jsonBuildType, "webUrl");
                 LOG.debug("Process projectName " + buildTypeID + " projectURL " + projectURL);
-                getProjectDetails(projectID, buildTypeID, buildTypeID, projectURL, instanceUrl, result);
+                getProjectDetails(projectID, buildTypeID, buildTypeID, projectURL, instanceUrl, lastBuildIds, due, result);
             } catch (URISyntaxException e) {
                 LOG.error("wrong syntax url for loading jobs details", e);
-            } catch (ParseException e) {
-                LOG.error("Parsing jobs details on instance: " + instanceUrl, e);
             }
         }
     }
 
 
-    private void recursivelyFindBuildTypes(String instanceUrl, String projectID, JSONArray buildTypes) {
+    /**
+     * Walks the project tree below the given project one level at a time, fetching the sibling
+     * subprojects of each level concurrently, down to the configured folder depth.
+     *
+     * @return the build types found in the project tree, without duplicates
+     * @throws RestClientException if the walk could not be completed
+     */
+    private List<JSONObject> findBuildTypes(String instanceUrl, String projectID) {
+        Map<String, JSONObject> buildTypes = new LinkedHashMap<>();
+        Set<String> visited = new HashSet<>();
+        visited.add(projectID);
+        List<String> level = Collections.singletonList(projectID);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, settings.getProjectThreads()));
+        try {
+            for (int depth = 0; !level.isEmpty() && depth <= settings.getFolderDepth(); depth++) {
+                List<Future<JSONObject>> projects = new ArrayList<>();
+                for (String id : level) {
+                    projects.add(executor.submit(() -> getProject(instanceUrl, id)));
+                }
+                // results are merged on this thread in submission order, which keeps the walk deterministic
+                List<String> nextLevel = new ArrayList<>();
+                for (Future<JSONObject> future : projects) {
+                    JSONObject project = future.get();
+                    if (project == null) {
+                        continue;
+                    }
+                    for (Object buildType : getJsonArray((JSONObject) project.get("buildTypes"), "buildType")) {
+                        JSONObject jsonBuildType = (JSONObject) buildType;
+                        buildTypes.putIfAbsent(getString(jsonBuildType, "id"), jsonBuildType);
+                    }
+                    for (Object subProject : getJsonArray((JSONObject) project.get("projects"), "project")) {
+                        String subProjectID = getString((JSONObject) subProject, "id");
+                        if (visited.add(subProjectID)) {
+                            nextLevel.add(subProjectID);
+                        }
+                    }
+                }
+                level = nextLevel;
+            }
+            if (!level.isEmpty()) {
+                LOG.warn("Skipping {} projects below folder depth {} of project {}", level.size(), settings.getFolderDepth(), projectID);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // a partial tree would have the jobs of the projects not visited taken for deleted, so the server fails instead
+            throw new RestClientException("Interrupted while fetching project details on instance: " + instanceUrl, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RestClientException("Fetching project details on instance: " + instanceUrl, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(buildTypes.values()));
+    }
+
+    private JSONObject getProject(String instanceUrl, String projectID) {
         try {
             String url = joinURL(instanceUrl, new String[]{PROJECT_API_URL_SUFFIX + "/id:" + projectID});
             LOG.info("Fetching project details for {}", url);
             ResponseEntity<String> responseEntity = makeRestCall(url);
             if (responseEntity == null) {
-                return;
+                return null;
             }
             String returnJSON = responseEntity.getBody();
             if (StringUtils.isEmpty(returnJSON)) {
-                return;
+                return null;
             }
             JSONParser parser = new JSONParser();
-            JSONObject object = (JSONObject) parser.parse(returnJSON);
-            JSONObject subProjectsObject = (JSONObject) object.get("projects");
-            JSONArray subProjects = getJsonArray(subProjectsObject, "project");
-            JSONObject buildTypesObject = (JSONObject) object.get("buildTypes");
-            JSONArray buildType = getJsonArray(buildTypesObject, "buildType");
-            if (subProjects.size() == 0 && buildType.size() == 0) {
-                return;
-            }
-            buildTypes.addAll(buildType);
-            if (subProjects.size() > 0) {
-                for (Object subProject : subProjects) {
-                    JSONObject jsonSubProject = (JSONObject) subProject;
-                    final String subProjectID = getString(jsonSubProject, "id");
-                    recursivelyFindBuildTypes(instanceUrl, subProjectID, buildTypes);
-                }
-            }
+            return (JSONObject) parser.parse(returnJSON);
         } catch (ParseException e) {
             LOG.error("Parsing jobs details on instance: " + instanceUrl, e);
+            return null;
         }
     }
 
 
-    private Boolean isDeploymentBuildType(String buildTypeID, String instanceUrl) throws ParseException {
+    /**
+     * Finds the deployment build types of a whole project tree with a single request, reading
+     * only the settings of every build type affected by the project.
+     *
+     * @return the ids of the build types whose buildConfigurationType is DEPLOYMENT
+     */
+    private Set<String> findDeploymentBuildTypes(String instanceUrl, String projectID) {
+        Set<String> deploymentBuildTypes = new HashSet<>();
         try {
-            String buildTypesUrl = joinURL(instanceUrl, new String[]{String.format("%s/id:%s", BUILD_TYPE_DETAILS_URL_SUFFIX, buildTypeID)});
-            LOG.info("isDeploymentBuildType fetching build types details for {}", buildTypesUrl);
+            String buildTypesUrl = joinURL(instanceUrl, new String[]{String.format("%s?locator=affectedProject:(id:%s)&fields=%s",
+                    BUILD_TYPE_DETAILS_URL_SUFFIX, projectID, BUILD_TYPE_SETTINGS_FIELDS)});
+            LOG.info("Fetching build type settings for {}", buildTypesUrl);
             ResponseEntity<String> responseEntity = makeRestCall(buildTypesUrl);
             String returnJSON = responseEntity.getBody();
             if (StringUtils.isEmpty(returnJSON)) {
-                return false;
+                return deploymentBuildTypes;
             }
             JSONParser parser = new JSONParser();
             JSONObject object = (JSONObject) parser.parse(returnJSON);
-
-            if (object.isEmpty()) {
-                return false;
-            }
-            JSONObject buildTypesObject = (JSONObject) object.get("settings");
-            JSONArray properties = getJsonArray(buildTypesObject, "property");
-            if (properties.size() == 0) {
-                return false;
-            }
-            for (Object property : properties) {
-                JSONObject jsonProperty = (JSONObject) property;
-                String propertyName = jsonProperty.get("name").toString();
-                if (!propertyName.equals("buildConfigurationType")) continue;
-                String propertyValue = jsonProperty.get("value").toString();
-                return propertyValue.equals("DEPLOYMENT");
+            for (Object buildType : getJsonArray(object, "buildType")) {
+                JSONObject jsonBuildType = (JSONObject) buildType;
+                if (isDeploymentBuildType(jsonBuildType)) {
+                    deploymentBuildTypes.add(getString(jsonBuildType, "id"));
+                }
             }
         } catch (HttpClientErrorException hce) {
-            LOG.error("http client exception loading build details", hce);
+            LOG.error("http client exception loading build type settings", hce);
+        } catch (ParseException e) {
+            LOG.error("Parsing build type settings on instance: " + instanceUrl, e);
+        }
+        return deploymentBuildTypes;
+    }
+
+    private boolean isDeploymentBuildType(JSONObject buildType) {
+        JSONArray properties = getJsonArray((JSONObject) buildType.get("settings"), "property");
+        for (Object property : properties) {
+            JSONObject jsonProperty = (JSONObject) property;
+            String propertyName = jsonProperty.get("name").toString();
+            if (!propertyName.equals("buildConfigurationType")) continue;
+            String propertyValue = jsonProperty.get("value").toString();
+            return propertyValue.equals("DEPLOYMENT");
         }
         return false;
     }
@@ -157,7 +231,8 @@ public class DefaultTeamcityClient implements TeamcityClient {
 
     @SuppressWarnings({"PMD.NPathComplexity", "PMD.ExcessiveMethodLength", "PMD.AvoidBranchingStatementAsLastInLoop", "PMD.EmptyIfStmt"})
     private void getProjectDetails(String projectID, String buildTypeID, String projectName, String projectURL, String instanceUrl,
-                                   Map<TeamcityProject, Map<jobData, Set<BaseModel>>> result) throws URISyntaxException, ParseException {
+                                   Map<TeamcityProject, Long> lastBuildIds, Predicate<TeamcityProject> due,
+                                   Map<TeamcityProject, Map<jobData, Set<BaseModel>>> result) throws URISyntaxException {
         LOG.debug("getProjectDetails: projectName " + projectName + " projectURL: " + projectURL);
 
         Map<jobData, Set<BaseModel>> jobDataMap = new HashMap<>();
@@ -168,73 +243,104 @@ public class DefaultTeamcityClient implements TeamcityClient {
         teamcityProject.setJobUrl(projectURL);
         teamcityProject.getOptions().put("projectId", projectID);
 
-        Set<BaseModel> builds = getBuildDetailsForTeamcityProject(buildTypeID, instanceUrl);
+        Long lastBuildId = lastBuildIds.get(teamcityProject);
+        Set<BaseModel> builds;
+        if (!due.test(teamcityProject)) {
+            // still returned, so the job is not taken for removed
+            builds = Collections.emptySet();
+        } else if (lastBuildId == null) {
+            builds = getBuildDetailsForTeamcityProject(buildTypeID, instanceUrl);
+        } else {
+            builds = getNewBuildDetailsForTeamcityProject(buildTypeID, instanceUrl, lastBuildId);
+        }
 
-        jobDataMap.put(jobData.BUILD, builds);
+        // a job whose builds could not be listed is returned without them, so it is not taken for idle
+        if (builds != null) {
+            jobDataMap.put(jobData.BUILD, builds);
+        }
 
         result.put(teamcityProject, jobDataMap);
     }
 
 
-    private Set<BaseModel> getBuildDetailsForTeamcityProjectPaginated(String buildTypeID,
-                                                                      String instanceUrl, int startCount, int buildsCount) throws ParseException {
-        HashSet<BaseModel> allBuilds = new HashSet<>();
-        String[] branches = settings.getBranchesToMonitor().split(",");
-        for (String branch : branches) {
-            allBuilds.addAll(getBuildDetailsForBranch(buildTypeID, instanceUrl, startCount, buildsCount, branch));
-        }
-        return allBuilds;
-    }
-
-    private Set<BaseModel> getBuildDetailsForBranch(String buildTypeID, String instanceUrl, int startCount, int buildsCount, String branch) throws ParseException {
+    /**
+     * @return a page of the builds of a branch, or null if it could not be listed
+     */
+    private Set<BaseModel> getBuildDetailsForBranch(String buildTypeID, String instanceUrl, int startCount, int buildsCount, String branch,
+                                                    String sinceLocator) {
         Set<BaseModel> builds = new LinkedHashSet<>();
         try {
             String allBuildsUrl = joinURL(instanceUrl, new String[]{BUILD_DETAILS_URL_SUFFIX});
             LOG.info("Fetching builds for project {}", allBuildsUrl);
-            String url = joinURL(allBuildsUrl, new String[]{String.format("?locator=buildType:%s,branch:%s,count:%d,start:%d", buildTypeID,
-                    URLEncoder.encode(branch, "UTF-8"), buildsCount, startCount)});
-            ResponseEntity<String> responseEntity = makeRestCall(url);
-            String returnJSON = responseEntity.getBody();
-            if (StringUtils.isEmpty(returnJSON)) {
-                return Collections.emptySet();
-            }
-            JSONParser parser = new JSONParser();
-            JSONObject object = (JSONObject) parser.parse(returnJSON);
-
-            if (object.isEmpty()) {
-                return Collections.emptySet();
+            String url = joinURL(allBuildsUrl, new String[]{String.format("?locator=buildType:%s,branch:%s,running:any%s,count:%d,start:%d", buildTypeID,
+                    URLEncoder.encode(branch, "UTF-8"), sinceLocator, buildsCount, startCount)})
+                    + fieldsParameter("&", settings.getBuildListFields());
+            List<TeamcityBuild> teamcityBuilds = makeStreamingRestCall(url, response -> {
+                try {
+                    return TeamcityBuildParser.parseBuilds(response.getBody());
+                } catch (JsonProcessingException e) {
+                    LOG.error("Parsing builds: " + url, e);
+                    return null;
+                }
+            });
+            if (teamcityBuilds == null) {
+                return null;
             }
-            JSONArray jsonBuilds = getJsonArray(object, "build");
-            for (Object build : jsonBuilds) {
-                JSONObject jsonBuild = (JSONObject) build;
+            for (TeamcityBuild summary : teamcityBuilds) {
                 // A basic Build object. This will be fleshed out later if this is a new Build.
-                String buildID = jsonBuild.get("id").toString();
+                String buildID = summary.getId();
                 LOG.debug(" buildNumber: " + buildID);
                 Build teamcityBuild = new Build();
                 teamcityBuild.setNumber(buildID);
                 String buildURL = String.format("%s?locator=id:%s", allBuildsUrl, buildID); //String buildURL = getString(jsonBuild, "webUrl");
                 LOG.debug(" Adding Build: " + buildURL);
                 teamcityBuild.setBuildUrl(buildURL);
-                teamcityBuild.setBuildStatus(getBuildStatus(jsonBuild));
+                // running builds are listed too, they hold the high-water mark back until they finish
+                teamcityBuild.setBuildStatus(summary.isFinished() ? getBuildStatus(summary.getStatus()) : BuildStatus.InProgress);
                 builds.add(teamcityBuild);
             }
         } catch (HttpClientErrorException | UnsupportedEncodingException hce) {
             LOG.error("http client exception loading build details", hce);
+            return null;
         }
         return builds;
     }
 
-    private Set<BaseModel> getBuildDetailsForTeamcityProject(String buildTypeID, String instanceUrl) throws ParseException {
+    /**
+     * Backfill path used on the first import of a build type: pages through its complete build history.
+     */
+    private Set<BaseModel> getBuildDetailsForTeamcityProject(String buildTypeID, String instanceUrl) {
+        return getBuildDetailsForTeamcityProject(buildTypeID, instanceUrl, "");
+    }
+
+    /**
+     * Incremental path: only asks Teamcity for the builds after the last collected build.
+     */
+    private Set<BaseModel> getNewBuildDetailsForTeamcityProject(String buildTypeID, String instanceUrl, long lastBuildId) {
+        return getBuildDetailsForTeamcityProject(buildTypeID, instanceUrl, String.format(",sinceBuild:(id:%d)", lastBuildId));
+    }
+
+    /**
+     * @return the builds of the monitored branches, or null if any page could not be listed. A partial listing
+     * is not returned, as the builds on the missing pages would fall below the high-water mark
+     */
+    private Set<BaseModel> getBuildDetailsForTeamcityProject(String buildTypeID, String instanceUrl, String sinceLocator) {
         Set<BaseModel> allBuilds = new LinkedHashSet<>();
-        int startCount = 0;
-        int buildsCount = 100;
-        while (true) {
-            Set<BaseModel> builds = getBuildDetailsForTeamcityProjectPaginated(buildTypeID, instanceUrl, startCount, buildsCount);
-            if (builds.isEmpty()) {
-                break;
+        String[] branches = settings.getBranchesToMonitor().split(",");
+        for (String branch : branches) {
+            int startCount = 0;
+            while (true) {
+                Set<BaseModel> builds = getBuildDetailsForBranch(buildTypeID, instanceUrl, startCount, BUILDS_PAGE_SIZE, branch, sinceLocator);
+                if (builds == null) {
+                    return null;
+                }
+                allBuilds.addAll(builds);
+                // a short page is the last one, no need to ask for the next (empty) one
+                if (builds.size() < BUILDS_PAGE_SIZE) {
+                    break;
+                }
+                startCount += BUILDS_PAGE_SIZE;
             }
-            allBuilds.addAll(builds);
-            startCount += 100;
         }
         return allBuilds;
     }
@@ -245,56 +351,20 @@ public class DefaultTeamcityClient implements TeamcityClient {
         LOG.debug("getting build details");
         String formattedBuildUrl = formatBuildUrl(buildUrl);
         try {
-            String url = rebuildJobUrl(formattedBuildUrl, instanceUrl);
-            ResponseEntity<String> result = makeRestCall(url);
-            String resultJSON = result.getBody();
-            if (StringUtils.isEmpty(resultJSON)) {
+            String url = buildDetailsUrl(formattedBuildUrl, instanceUrl);
+            TeamcityBuild buildDetails = makeStreamingRestCall(url, response -> {
+                try {
+                    return TeamcityBuildParser.parseBuild(response.getBody());
+                } catch (JsonProcessingException e) {
+                    LOG.error("Parsing build: " + formattedBuildUrl, e);
+                    return null;
+                }
+            });
+            if (buildDetails == null) {
                 LOG.error("Error getting build details for. URL=" + url);
                 return null;
             }
-            JSONParser parser = new JSONParser();
-            try {
-                JSONObject buildJson = (JSONObject) parser.parse(resultJSON);
-                String buildStatus = buildJson.get("state").toString();
-                // Ignore jobs that are building
-                if (buildStatus.equals("finished")) {
-                    Build build = new Build();
-
-
-                    long startTime = getTimeInMillis(buildJson.get("startDate").toString());
-                    long endTime = getTimeInMillis(buildJson.get("finishDate").toString());
-                    long duration = endTime - startTime;
-                    build.setStartTime(startTime);
-                    build.setEndTime(endTime);
-                    build.setDuration(duration);
-
-                    build.setNumber(buildJson.get("id").toString());
-                    build.setBuildUrl(buildUrl);
-                    build.setBuildUrl(formattedBuildUrl);
-                    build.setTimestamp(System.currentTimeMillis());
-                    build.setEndTime(build.getStartTime() + build.getDuration());
-                    build.setBuildStatus(getBuildStatus(buildJson));
-
-
-                    //For git SCM, add the repoBranches. For other SCM types, it's handled while adding changesets
-                    build.getCodeRepos().addAll(getGitRepoBranch(buildJson));
-
-
-                    // Need to handle duplicate changesets bug in Pipeline jobs
-//                    Set<String> commitIds = new HashSet<>();
-                    // This is empty for git
-//                    Set<String> revisions = new HashSet<>();
-
-                    JSONObject revisions = (JSONObject) buildJson.get("revisions");
-                    if (revisions != null) {
-                        addRevisions(build, revisions);
-                    }
-                    return build;
-                }
-
-            } catch (ParseException e) {
-                LOG.error("Parsing build: " + formattedBuildUrl, e);
-            }
+            return toBuild(buildDetails, formattedBuildUrl);
         } catch (RestClientException rce) {
             LOG.error("Client exception loading build details: " + rce.getMessage() + ". URL =" + formattedBuildUrl);
         } catch (MalformedURLException mfe) {
@@ -309,36 +379,55 @@ public class DefaultTeamcityClient implements TeamcityClient {
         return null;
     }
 
-    private void addRevisions(Build build, JSONObject revisions) {
-
-        //((JSONObject)((JSONArray)((JSONObject)buildJson.get("revisions")).get("revision")).get(0)).get("version")
-        //((JSONObject)((JSONArray)revisions.get("revision")).get(0)).get("version")
-        //((JSONObject)(theRevisions.get("revision")).get(0)).get("version")
-
+    /**
+     * @return the projected build detail request for a build url already run through {@link #formatBuildUrl(String)}
+     */
+    String buildDetailsUrl(String formattedBuildUrl, String instanceUrl) throws MalformedURLException, URISyntaxException, UnsupportedEncodingException {
+        return rebuildJobUrl(formattedBuildUrl, instanceUrl) + fieldsParameter("?", settings.getBuildDetailFields());
+    }
 
-        Object revision = revisions.get("revision");
-        if (revision == null) {
-            LOG.warn("No revision detected for build " + build.getBuildUrl());
-            return;
+    /**
+     * Maps parsed build details to a Build, or null for builds that are still running.
+     */
+    Build toBuild(TeamcityBuild buildDetails, String formattedBuildUrl) {
+        // Ignore jobs that are building
+        if (!buildDetails.isFinished()) {
+            return null;
         }
-        JSONArray theRevisions = (JSONArray) revision;
-        if (theRevisions.size() < 1) {
+        Build build = new Build();
+
+        long startTime = getTimeInMillis(buildDetails.getStartDate());
+        long endTime = getTimeInMillis(buildDetails.getFinishDate());
+        long duration = endTime - startTime;
+        build.setStartTime(startTime);
+        build.setEndTime(endTime);
+        build.setDuration(duration);
+
+        build.setNumber(buildDetails.getId());
+        build.setBuildUrl(formattedBuildUrl);
+        build.setTimestamp(System.currentTimeMillis());
+        build.setEndTime(build.getStartTime() + build.getDuration());
+        build.setBuildStatus(getBuildStatus(buildDetails.getStatus()));
+
+        addRevisions(build, buildDetails.getRevisions());
+        return build;
+    }
+
+    private void addRevisions(Build build, List<String> revisions) {
+        if (revisions.isEmpty()) {
             LOG.warn("No revision detected for build " + build.getBuildUrl());
             return;
         }
-        if (theRevisions.size() > 1) {
+        if (revisions.size() > 1) {
             LOG.warn("Multiple revisions detected for build " + build.getBuildUrl() + ", considering the first");
         }
-        String theCommitVersion = (String) ((JSONObject)theRevisions.get(0)).get("version");
-        List<Commit> matchedCommits = commitRepository.findByScmRevisionNumber(theCommitVersion);
-        if (matchedCommits.isEmpty()) {
-            LOG.warn("Commit sha " + theCommitVersion + " not found in commit repository, skip adding to pipeline commits this time");
-        } else {
-            build.setSourceChangeSet(Collections.singletonList(matchedCommits.get(0)));
-        }
+        // resolved to the stored commit in batches by CommitResolver
+        SCM revision = new SCM();
+        revision.setScmRevisionNumber(revisions.get(0));
+        build.setSourceChangeSet(Collections.singletonList(revision));
     }
 
-    private String formatBuildUrl(String buildUrl) {
+    String formatBuildUrl(String buildUrl) {
         return buildUrl.split("\\?")[0] + "/" + buildUrl.split("=")[1];
     }
 
@@ -422,87 +511,6 @@ public class DefaultTeamcityClient implements TeamcityClient {
         }
     }
 
-    /**
-     * Gathers repo urls, and the branch name from the last built revision.
-     * Filters out the qualifiers from the branch name and sets the unqualified branch name.
-     * We assume that all branches are in remotes/origin.
-     */
-
-    @SuppressWarnings("PMD")
-    private List<RepoBranch> getGitRepoBranch(JSONObject buildJson) {
-        List<RepoBranch> list = new ArrayList<>();
-
-        JSONArray actions = getJsonArray(buildJson, "actions");
-        for (Object action : actions) {
-            JSONObject jsonAction = (JSONObject) action;
-            if (jsonAction.size() > 0) {
-                JSONObject lastBuiltRevision = null;
-                JSONArray branches = null;
-                JSONArray remoteUrls = getJsonArray((JSONObject) action, "remoteUrls");
-                if (!remoteUrls.isEmpty()) {
-                    lastBuiltRevision = (JSONObject) jsonAction.get("lastBuiltRevision");
-                }
-                if (lastBuiltRevision != null) {
-                    branches = getJsonArray(lastBuiltRevision, "branch");
-                }
-                // As of git plugin 3.0.0, when multiple repos are configured in the git plugin itself instead of MultiSCM plugin,
-                // they are stored unordered in a HashSet. So it's buggy and we cannot associate the correct branch information.
-                // So for now, we loop through all the remoteUrls and associate the built branch(es) with all of them.
-                if (branches != null && !branches.isEmpty()) {
-                    for (Object url : remoteUrls) {
-                        String sUrl = (String) url;
-                        if (sUrl != null && !sUrl.isEmpty()) {
-                            sUrl = removeGitExtensionFromUrl(sUrl);
-                            for (Object branchObj : branches) {
-                                String branchName = getString((JSONObject) branchObj, "name");
-                                if (branchName != null) {
-                                    String unqualifiedBranchName = getUnqualifiedBranch(branchName);
-                                    RepoBranch grb = new RepoBranch(sUrl, unqualifiedBranchName, RepoBranch.RepoType.GIT);
-                                    list.add(grb);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return list;
-    }
-
-    private String removeGitExtensionFromUrl(String url) {
-        String sUrl = url;
-        //remove .git from the urls
-        if (sUrl.endsWith(".git")) {
-            sUrl = sUrl.substring(0, sUrl.lastIndexOf(".git"));
-        }
-        return sUrl;
-    }
-
-    /**
-     * Gets the unqualified branch name given the qualified one of the following forms:
-     * 1. refs/remotes/<remote name>/<branch name>
-     * 2. remotes/<remote name>/<branch name>
-     * 3. origin/<branch name>
-     * 4. <branch name>
-     *
-     * @param qualifiedBranch
-     * @return the unqualified branch name
-     */
-
-    private String getUnqualifiedBranch(String qualifiedBranch) {
-        String branchName = qualifiedBranch;
-        Pattern pattern = Pattern.compile("(refs/)?remotes/[^/]+/(.*)|(origin[0-9]*/)?(.*)");
-        Matcher matcher = pattern.matcher(branchName);
-        if (matcher.matches()) {
-            if (matcher.group(2) != null) {
-                branchName = matcher.group(2);
-            } else if (matcher.group(4) != null) {
-                branchName = matcher.group(4);
-            }
-        }
-        return branchName;
-    }
-
     private long getCommitTimestamp(JSONObject jsonItem) {
         if (jsonItem.get("timestamp") != null) {
             return (Long) jsonItem.get("timestamp");
@@ -533,7 +541,7 @@ public class DefaultTeamcityClient implements TeamcityClient {
     }
 
     private JSONArray getJsonArray(JSONObject json, String key) {
-        Object array = json.get(key);
+        Object array = json == null ? null : json.get(key);
         return array == null ? new JSONArray() : (JSONArray) array;
     }
 
@@ -547,8 +555,10 @@ public class DefaultTeamcityClient implements TeamcityClient {
         return author == null ? getString(jsonItem, "user") : getFullName(author);
     }
 
-    private BuildStatus getBuildStatus(JSONObject buildJson) {
-        String status = buildJson.get("status").toString();
+    private BuildStatus getBuildStatus(String status) {
+        if (status == null) {
+            return BuildStatus.Unknown;
+        }
         switch (status) {
             case "SUCCESS":
                 return BuildStatus.Success;
@@ -575,6 +585,28 @@ public class DefaultTeamcityClient implements TeamcityClient {
         }
     }
 
+    // projects a response to the given fields, the full representation is returned when no fields are configured
+    private static String fieldsParameter(String separator, String fields) {
+        return StringUtils.isEmpty(fields) ? "" : separator + "fields=" + fields;
+    }
+
+    /**
+     * Streams the response body of a GET request to the given extractor instead of reading it into a String.
+     */
+    protected <T> T makeStreamingRestCall(String sUrl, ResponseExtractor<T> responseExtractor) {
+        LOG.debug("Enter makeStreamingRestCall " + sUrl);
+        RequestCallback requestCallback = request -> addRequestHeaders(request.getHeaders());
+        return rest.execute(sUrl, HttpMethod.GET, requestCallback, responseExtractor);
+    }
+
+    void addRequestHeaders(HttpHeaders headers) {
+        List<String> apiKeys = settings.getApiKeys();
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        if (!apiKeys.isEmpty()) {
+            headers.putAll(createAuthzHeader(apiKeys.get(0)));
+        }
+    }
+
     private static HttpHeaders createAuthzHeader(final String apiToken) {
         String authHeader = "Bearer " + apiToken;
 
@@ -0,0 +1,131 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.CollectorItemConfigHistory;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.Pipeline;
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Makes sure the indexes behind the queries of the collector exist once the application has
+ * started, and logs any query shape that Mongo still answers with a collection scan.
+ */
+@org.springframework.stereotype.Component
+public class IndexBootstrapper implements ApplicationListener<ApplicationReadyEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(IndexBootstrapper.class);
+
+    private static final String COLLSCAN = "COLLSCAN";
+
+    private final MongoOperations mongoOperations;
+    private final TeamcitySettings settings;
+
+    @Autowired
+    public IndexBootstrapper(MongoOperations mongoOperations, TeamcitySettings settings) {
+        this.mongoOperations = mongoOperations;
+        this.settings = settings;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!settings.isEnsureIndexes()) {
+            return;
+        }
+        for (IndexedQuery query : indexedQueries()) {
+            try {
+                Index index = new Index().background();
+                for (String field : query.fields) {
+                    index.on(field, Sort.Direction.ASC);
+                }
+                mongoOperations.indexOps(query.entityClass).ensureIndex(index);
+                if (usesCollectionScan(query)) {
+                    LOG.warn("{} query on {} is answered with a collection scan", query.name, query.fields);
+                }
+            } catch (DataAccessException e) {
+                LOG.error("Could not ensure the index of the " + query.name + " query", e);
+            }
+        }
+    }
+
+    /**
+     * The queries this collector runs per job or per build, with sample values to explain them.
+     */
+    static List<IndexedQuery> indexedQueries() {
+        ObjectId id = new ObjectId();
+        return Arrays.asList(
+                new IndexedQuery("findByCollectorItemIdAndNumber", Build.class,
+                        new BasicDBObject("collectorItemId", id).append("number", ""), "collectorItemId", "number"),
+                new IndexedQuery("findByScmRevisionNumber", Commit.class,
+                        new BasicDBObject("scmRevisionNumber", ""), "scmRevisionNumber"),
+                new IndexedQuery("findEnabledJobs", TeamcityProject.class,
+                        new BasicDBObject("collectorId", id).append("options.instanceUrl", "").append("enabled", true),
+                        "collectorId", "options.instanceUrl", "enabled"),
+                new IndexedQuery("findByCollectorItemIdAndTimestamp", CollectorItemConfigHistory.class,
+                        new BasicDBObject("collectorItemId", id).append("timestamp", 0L), "collectorItemId", "timestamp"),
+                new IndexedQuery("findByCollectorItemId", Pipeline.class,
+                        new BasicDBObject("collectorItemId", id), "collectorItemId"),
+                new IndexedQuery("findIdsOnDashboards", Component.class,
+                        new BasicDBObject("collectorItems.Build.collectorId", id), "collectorItems.Build.collectorId"));
+    }
+
+    private boolean usesCollectionScan(IndexedQuery query) {
+        DBObject explain;
+        try {
+            explain = mongoOperations.execute(query.entityClass, collection -> collection.find(query.sample).explain());
+        } catch (RuntimeException e) {
+            LOG.warn("Could not explain the {} query: {}", query.name, e.toString());
+            return false;
+        }
+        return containsStage(explain.get("queryPlanner") == null ? explain : (DBObject) explain.get("queryPlanner"), COLLSCAN);
+    }
+
+    private static boolean containsStage(Object plan, String stage) {
+        if (plan instanceof DBObject) {
+            DBObject dbObject = (DBObject) plan;
+            if (stage.equals(dbObject.get("stage"))) {
+                return true;
+            }
+            for (String key : dbObject.keySet()) {
+                if (containsStage(dbObject.get(key), stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof List) {
+            for (Object child : (List<?>) plan) {
+                if (containsStage(child, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static final class IndexedQuery {
+        private final String name;
+        private final Class<?> entityClass;
+        private final DBObject sample;
+        private final List<String> fields;
+
+        IndexedQuery(String name, Class<?> entityClass, DBObject sample, String... fields) {
+            this.name = name;
+            this.entityClass = entityClass;
+            this.sample = sample;
+            this.fields = Arrays.asList(fields);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Index of stored jobs by instance url, job url and job name, to reconcile them with the jobs
+ * fetched from a server in linear time. Jobs stored before their instance url was recorded are
+ * found by job url and job name alone.
+ */
+final class JobIndex {
+
+    private final List<TeamcityProject> jobs;
+    private final List<Key> keys;
+    private final Map<Key, TeamcityProject> jobsByKey;
+
+    JobIndex(Collection<TeamcityProject> jobs) {
+        this.jobs = new ArrayList<>(jobs);
+        this.keys = new ArrayList<>(jobs.size());
+        this.jobsByKey = new HashMap<>(jobs.size() * 2);
+        for (TeamcityProject job : this.jobs) {
+            Key key = Key.of(job);
+            keys.add(key);
+            // the first of duplicate jobs wins, as with List.indexOf
+            jobsByKey.putIfAbsent(key, job);
+        }
+    }
+
+    /**
+     * @return the stored job for a fetched job, or null if it is new
+     */
+    TeamcityProject find(TeamcityProject job) {
+        TeamcityProject existing = jobsByKey.get(Key.of(job));
+        return existing != null ? existing : jobsByKey.get(new Key("", job.getJobUrl(), job.getJobName()));
+    }
+
+    /**
+     * Sorts the jobs fetched from a server into new jobs, stored jobs and stored jobs of the
+     * server that it no longer has.
+     */
+    Reconciliation reconcile(Collection<TeamcityProject> fetchedJobs, String instanceUrl) {
+        Reconciliation reconciliation = new Reconciliation();
+        Set<Key> matched = new HashSet<>(fetchedJobs.size() * 2);
+        for (TeamcityProject job : fetchedJobs) {
+            TeamcityProject existing = find(job);
+            if (existing == null) {
+                reconciliation.inserts.add(job);
+            } else {
+                reconciliation.updates.put(job, existing);
+                matched.add(Key.of(job));
+            }
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            Key key = keys.get(i);
+            if (key.instanceUrl.equals(instanceUrl) && !matched.contains(key)) {
+                reconciliation.deletes.add(jobs.get(i));
+            }
+        }
+        return reconciliation;
+    }
+
+    static final class Reconciliation {
+        private final List<TeamcityProject> inserts = new ArrayList<>();
+        private final Map<TeamcityProject, TeamcityProject> updates = new LinkedHashMap<>();
+        private final List<TeamcityProject> deletes = new ArrayList<>();
+
+        /**
+         * @return the fetched jobs that are not stored yet
+         */
+        List<TeamcityProject> getInserts() {
+            return inserts;
+        }
+
+        /**
+         * @return the stored job of each fetched job that is already stored
+         */
+        Map<TeamcityProject, TeamcityProject> getUpdates() {
+            return updates;
+        }
+
+        /**
+         * @return the stored jobs of the server that were not fetched
+         */
+        List<TeamcityProject> getDeletes() {
+            return deletes;
+        }
+    }
+
+    private static final class Key {
+        private final String instanceUrl;
+        private final String jobUrl;
+        private final String jobName;
+
+        private Key(String instanceUrl, String jobUrl, String jobName) {
+            this.instanceUrl = instanceUrl;
+            this.jobUrl = jobUrl;
+            this.jobName = jobName;
+        }
+
+        static Key of(TeamcityProject job) {
+            return new Key(StringUtils.defaultString(job.getInstanceUrl()), job.getJobUrl(), job.getJobName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return instanceUrl.equals(key.instanceUrl) && Objects.equals(jobUrl, key.jobUrl) && Objects.equals(jobName, key.jobName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(instanceUrl, jobUrl, jobName);
+        }
+    }
+}
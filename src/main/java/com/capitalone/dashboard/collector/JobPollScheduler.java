@@ -0,0 +1,101 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Polls each job on its own interval, driven by its recent build activity. A job with new builds
+ * goes to the fast lane and is polled again after the minimum interval, an idle job backs off
+ * exponentially up to the maximum interval. The jobs waiting for their next poll are kept in a
+ * priority queue on their due time, so each collection only takes the due ones off its head.
+ * Jobs that are not queued, either new or due, are polled.
+ */
+@Component
+public class JobPollScheduler {
+
+    private final TeamcitySettings settings;
+    private final Map<TeamcityProject, Poll> polls = new HashMap<>();
+    private final PriorityQueue<Poll> queue = new PriorityQueue<>(Comparator.comparingLong(Poll::getDue));
+
+    @Autowired
+    public JobPollScheduler(TeamcitySettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Starts a collection, taking the jobs due by the given time off the queue.
+     *
+     * @param now the start of the collection
+     * @return whether the builds of a job are to be listed in this collection
+     */
+    public synchronized Predicate<TeamcityProject> due(long now) {
+        while (!queue.isEmpty() && queue.peek().getDue() <= now) {
+            queue.poll().queued = false;
+        }
+        return job -> !isQueued(job);
+    }
+
+    /**
+     * Queues a polled job for its next poll. Jobs that are queued already, and were not polled, are left as they are.
+     *
+     * @param job      the job
+     * @param newBuilds whether the job had new builds
+     * @param now      the time of the poll
+     */
+    public synchronized void record(TeamcityProject job, boolean newBuilds, long now) {
+        Poll poll = polls.computeIfAbsent(job, j -> new Poll());
+        if (poll.queued) {
+            return;
+        }
+        long minInterval = Math.max(1, settings.getMinPollInterval());
+        poll.interval = newBuilds || poll.interval == 0 ? minInterval
+                : Math.min(Math.max(minInterval, settings.getMaxPollInterval()), poll.interval * 2);
+        poll.due = now + poll.interval;
+        poll.queued = true;
+        queue.add(poll);
+    }
+
+    /**
+     * Drops the polls of deleted jobs.
+     *
+     * @param jobs the deleted jobs
+     */
+    public synchronized void forget(Collection<TeamcityProject> jobs) {
+        for (TeamcityProject job : jobs) {
+            Poll poll = polls.remove(job);
+            if (poll != null && poll.queued) {
+                queue.remove(poll);
+            }
+        }
+    }
+
+    /**
+     * @return the number of jobs waiting for their next poll
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private synchronized boolean isQueued(TeamcityProject job) {
+        Poll poll = polls.get(job);
+        return poll != null && poll.queued;
+    }
+
+    private static final class Poll {
+        private long interval;
+        private long due;
+        private boolean queued;
+
+        private long getDue() {
+            return due;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.capitalone.dashboard.repository.TeamcityJobRepository;
+import org.bson.types.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the changes made to stored jobs while a server is collected. The changed fields of each
+ * job are written with one partial update when the unit of work is flushed, no matter how many
+ * times the job was changed.
+ */
+class JobUnitOfWork {
+
+    private final TeamcityJobRepository teamcityJobRepository;
+    private final Map<ObjectId, Map<String, Object>> changesByJob = new LinkedHashMap<>();
+
+    JobUnitOfWork(TeamcityJobRepository teamcityJobRepository) {
+        this.teamcityJobRepository = teamcityJobRepository;
+    }
+
+    void setNiceName(TeamcityProject job, String niceName) {
+        job.setNiceName(niceName);
+        set(job, "niceName", niceName);
+    }
+
+    void setEnvironment(TeamcityProject job, String environment) {
+        job.setEnvironment(environment);
+        set(job, "environment", environment);
+    }
+
+    void setInstanceUrl(TeamcityProject job, String instanceUrl) {
+        job.setInstanceUrl(instanceUrl);
+        set(job, "options.instanceUrl", instanceUrl);
+    }
+
+    void setLastUpdated(TeamcityProject job, long lastUpdated) {
+        job.setLastUpdated(lastUpdated);
+        set(job, "lastUpdated", lastUpdated);
+    }
+
+    void setLastBuildId(TeamcityProject job, long lastBuildId) {
+        job.setLastBuildId(lastBuildId);
+        set(job, "lastBuildId", lastBuildId);
+    }
+
+    private void set(TeamcityProject job, String field, Object value) {
+        changesByJob.computeIfAbsent(job.getId(), id -> new LinkedHashMap<>()).put(field, value);
+    }
+
+    /**
+     * Writes the changes of a single job, once it is done with.
+     */
+    void flush(TeamcityProject job) {
+        Map<String, Object> changes = changesByJob.remove(job.getId());
+        if (changes != null) {
+            teamcityJobRepository.updateFields(job.getId(), changes);
+        }
+    }
+
+    /**
+     * Writes one $set per changed job and starts over.
+     */
+    void flush() {
+        changesByJob.forEach(teamcityJobRepository::updateFields);
+        changesByJob.clear();
+    }
+}
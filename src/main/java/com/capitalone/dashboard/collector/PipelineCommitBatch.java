@@ -0,0 +1,53 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.PipelineCommit;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pipeline commits of the jobs of a collection cycle, grouped by the product collector item
+ * of the pipeline they go to. Jobs of any server add to it, and each pipeline is then merged and
+ * written once per cycle.
+ */
+public class PipelineCommitBatch {
+
+    private final PipelineLookup lookup;
+    private final Map<ObjectId, List<PipelineCommit>> commitsByProductItem = new ConcurrentHashMap<>();
+
+    PipelineCommitBatch(PipelineLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Adds the commits of the builds of a job to the pipelines of the dashboards that show it.
+     *
+     * @param gitProjectId the Teamcity project of the job
+     * @param commits      the commits built by the job
+     */
+    public void add(String gitProjectId, List<PipelineCommit> commits) {
+        if (commits.isEmpty()) {
+            return;
+        }
+        for (String dashboardId : lookup.dashboardIds(gitProjectId)) {
+            for (CollectorItem productItem : lookup.productItems(dashboardId)) {
+                commitsByProductItem.merge(productItem.getId(), new ArrayList<>(commits), (existing, added) -> {
+                    existing.addAll(added);
+                    return existing;
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the commits added so far, by the id of the product collector item of their pipeline
+     */
+    Map<ObjectId, List<PipelineCommit>> getCommitsByProductItem() {
+        return Collections.unmodifiableMap(commitsByProductItem);
+    }
+}
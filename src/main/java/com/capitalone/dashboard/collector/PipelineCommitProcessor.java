@@ -2,7 +2,7 @@ package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.model.*;
 import com.capitalone.dashboard.repository.*;
-import com.google.gson.Gson;
+import com.google.common.util.concurrent.Striped;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,125 +10,268 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 @org.springframework.stereotype.Component
 public class PipelineCommitProcessor {
     private static final Logger LOG = LoggerFactory.getLogger(PipelineCommitProcessor.class);
+    private static final Comparator<PipelineCommit> NEWEST_COMMIT_FIRST = Comparator.comparingLong(PipelineCommit::getScmCommitTimestamp).reversed();
+    private static final Comparator<PipelineCommit> NEWEST_BUILD_FIRST = Comparator.comparingLong(PipelineCommit::getTimestamp).reversed();
 
     private final CollectorRepository collectorRepository;
     private final CollectorItemRepository collectorItemRepository;
-    private final PipelineRepository pipelineRepository;
+    private final TeamcityPipelineRepository teamcityPipelineRepository;
     private final ComponentRepository componentRepository;
     private final DashboardRepository dashboardRepository;
+    private final TeamcitySettings teamcitySettings;
+    private final Striped<Lock> pipelineLocks = Striped.lock(64);
 
     @Autowired
     public PipelineCommitProcessor(CollectorRepository collectorRepository,
                                    @Qualifier("collectorItemRepository") CollectorItemRepository collectorItemRepository,
-                                   PipelineRepository pipelineRepository,
+                                   TeamcityPipelineRepository teamcityPipelineRepository,
                                    ComponentRepository componentRepository,
-                                   DashboardRepository dashboardRepository) {
+                                   DashboardRepository dashboardRepository,
+                                   TeamcitySettings teamcitySettings) {
         this.collectorRepository = collectorRepository;
         this.collectorItemRepository = collectorItemRepository;
-        this.pipelineRepository = pipelineRepository;
+        this.teamcityPipelineRepository = teamcityPipelineRepository;
         this.componentRepository = componentRepository;
         this.dashboardRepository = dashboardRepository;
+        this.teamcitySettings = teamcitySettings;
     }
 
-    private List<Dashboard> findAllDashboardsForCollectorId(ObjectId collectorId, String gitProjectId) {
-        List<CollectorItem> collectorItems = collectorItemRepository.findByCollectorIdIn(Collections.singletonList(collectorId));
-        if (collectorItems == null || collectorItems.size() == 0) {
-            return Collections.emptyList();
-        }
+    /**
+     * Starts the pipeline commits of a collection cycle, to be written by
+     * {@link #processPipelineCommits(PipelineCommitBatch)} once all its jobs are collected.
+     */
+    public PipelineCommitBatch newBatch(ObjectId collectorId) {
+        return new PipelineCommitBatch(new PipelineLookup(collectorId, collectorRepository, collectorItemRepository,
+                componentRepository, dashboardRepository));
+    }
 
-        Optional<CollectorItem> collectorItemOptional =
-                collectorItems.stream().filter(item ->
-                        gitProjectId.equals(item.getOptions().get("projectId"))).findFirst();
-        if (!collectorItemOptional.isPresent()) {
-            return Collections.emptyList();
+    public void processPipelineCommits(PipelineCommitBatch batch) {
+        Map<ObjectId, List<PipelineCommit>> commitsByProductItem = batch.getCommitsByProductItem();
+        int threads = Math.max(1, Math.min(teamcitySettings.getPipelineThreads(), commitsByProductItem.size()));
+        if (threads == 1) {
+            commitsByProductItem.forEach(this::updatePipeline);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            commitsByProductItem.forEach((productItemId, commits) -> tasks.add(() -> {
+                updatePipeline(productItemId, commits);
+                return null;
+            }));
+            for (Future<Void> task : executor.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while updating pipelines", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Failed to update pipelines", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        CollectorItem collectorItem = collectorItemOptional.get();
-        List<Component> components = componentRepository
-                .findByBuildCollectorItemId(collectorItem.getId());
-        List<ObjectId> componentIds = components.stream().map(BaseModel::getId).collect(Collectors.toList());
-        return dashboardRepository.findByApplicationComponentIdsIn(componentIds);
     }
 
-    public void processPipelineCommits(List<PipelineCommit> commitsOfBuildStage, ObjectId collectorId, String gitProjectId) {
-        if (commitsOfBuildStage.size() <= 0) {
-            return;
+    /**
+     * Merges the commits of new builds into the Build stage of the pipeline of a product collector
+     * item. Pipelines are updated by one thread at a time, and re-read and merged again when another
+     * process wrote them in the meantime. A failure is logged and only affects this pipeline.
+     */
+    private void updatePipeline(ObjectId productItemId, List<PipelineCommit> commitsOfBuildStage) {
+        Lock lock = pipelineLocks.get(productItemId);
+        lock.lock();
+        try {
+            for (int attempt = 0; attempt <= teamcitySettings.getPipelineUpdateRetries(); attempt++) {
+                if (tryUpdatePipeline(productItemId, commitsOfBuildStage)) {
+                    return;
+                }
+                LOG.info("Pipeline of {} was updated concurrently, merging again", productItemId);
+            }
+            LOG.error("Could not update the pipeline of " + productItemId + " because of concurrent updates");
+        } catch (RuntimeException e) {
+            // contained to the pipeline, so the others of the cycle are still updated
+            LOG.error("Updating the pipeline of " + productItemId + " failed", e);
+        } finally {
+            lock.unlock();
         }
-        List<Dashboard> allDashboardsForCommit = findAllDashboardsForCollectorId(collectorId, gitProjectId);
-        List<String> dashBoardIds = allDashboardsForCommit.stream().map(d -> d.getId().toString()).collect(Collectors.toList());
+    }
 
+    /**
+     * @return false if the pipeline was written since it was read
+     */
+    private boolean tryUpdatePipeline(ObjectId productItemId, List<PipelineCommit> commitsOfBuildStage) {
         String buildEnvironment = PipelineStage.BUILD.getName();
-        List<Collector> collectorList = collectorRepository.findByCollectorType(CollectorType.Product);
-        List<CollectorItem> collectorItemList = collectorItemRepository.findByCollectorIdIn(collectorList.stream().map(BaseModel::getId).collect(Collectors.toList()));
+        // only the commit and build stages are read, and only the build stage commits are written back
+        TeamcityPipelineRepositoryCustom.CommitStages read = teamcityPipelineRepository.findCommitStages(productItemId);
+        Pipeline pipeline = read == null ? null : read.getPipeline();
+        Map<String, EnvironmentStage> environmentStageMap = pipeline == null ? Collections.emptyMap() : pipeline.getEnvironmentStageMap();
+        EnvironmentStage commitStage = environmentStageMap.get(PipelineStage.COMMIT.getName());
+        if (commitStage == null || commitStage.getCommits() == null || commitStage.getCommits().isEmpty()) {
+            LOG.error("Cannot populate pipeline commits for build since no pipeline commits for Commit stage found");
+            LOG.error("Maybe the SCM collector has not been run?");
+            return true;
+        }
+        List<PipelineCommit> pipelineCommitsOfCommitsStage = inOrder(commitStage.getCommits(), NEWEST_COMMIT_FIRST);
+
+        EnvironmentStage environmentStage = environmentStageMap.get(buildEnvironment);
+        List<PipelineCommit> existingBuildStageCommits = environmentStage == null || environmentStage.getCommits() == null
+                ? Collections.emptyList() : inOrder(environmentStage.getCommits(), NEWEST_BUILD_FIRST);
+
+        //Existing commits win over incoming commits with the same sha
+        Map<String, PipelineCommit> builtCommitsBySha = new HashMap<>();
+        for (PipelineCommit commit : existingBuildStageCommits) {
+            builtCommitsBySha.putIfAbsent(commit.getScmRevisionNumber(), commit);
+        }
+        for (PipelineCommit commit : commitsOfBuildStage) {
+            builtCommitsBySha.putIfAbsent(commit.getScmRevisionNumber(), commit);
+        }
+        Set<PipelineCommit> existing = Collections.newSetFromMap(new IdentityHashMap<>());
+        existing.addAll(existingBuildStageCommits);
 
-        for (CollectorItem collectorItem : collectorItemList) {
-            boolean dashboardId = dashBoardIds.contains(collectorItem.getOptions().get("dashboardId").toString());
-            if (!dashboardId) {
-                continue;
+        // with retention the commits below the oldest one kept may have been dropped, not left unbuilt,
+        // so the build of that commit is not carried over to them, nor to commits older than the cutoff
+        long cutoff = retentionCutoff();
+        boolean retaining = cutoff > 0 || teamcitySettings.getPipelineCommitMaxCount() > 0;
+        PipelineCommit oldestExisting = null;
+        if (retaining) {
+            for (PipelineCommit commit : pipelineCommitsOfCommitsStage) {
+                PipelineCommit builtPipelineCommit = builtCommitsBySha.get(commit.getScmRevisionNumber());
+                if (builtPipelineCommit != null && existing.contains(builtPipelineCommit)) {
+                    oldestExisting = builtPipelineCommit;
+                }
             }
-            Pipeline pipeline = getOrCreatePipeline(collectorItem);
-            Map<String, EnvironmentStage> environmentStageMap = pipeline.getEnvironmentStageMap();
-            EnvironmentStage commitStage = environmentStageMap.get(PipelineStage.COMMIT.getName());
-            if (commitStage == null || commitStage.getCommits() == null || commitStage.getCommits().isEmpty()) {
-                LOG.error("Cannot populate pipeline commits for build since no pipeline commits for Commit stage found");
-                LOG.error("Maybe the SCM collector has not been run?");
-                continue;
+        }
+
+        Set<PipelineCommit> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<PipelineCommit> added = new ArrayList<>();
+        long timestamp = 0;
+        for (PipelineCommit commit :
+                pipelineCommitsOfCommitsStage) {
+            if (builtCommitsBySha.containsKey(commit.getScmRevisionNumber())) {
+                PipelineCommit builtPipelineCommit = builtCommitsBySha.get(commit.getScmRevisionNumber());
+                if (existing.contains(builtPipelineCommit)) {
+                    kept.add(builtPipelineCommit);
+                } else {
+                    added.add(builtPipelineCommit);
+                }
+                timestamp = builtPipelineCommit == oldestExisting ? 0 : builtPipelineCommit.getTimestamp();
+            } else {
+                if (timestamp == 0 || commit.getScmCommitTimestamp() < cutoff) {
+                    //Skip these commits because they may not have been built!
+                    continue;
+                }
+                added.add(copy(commit, timestamp));
             }
-            List<PipelineCommit> pipelineCommitsOfCommitsStage = new ArrayList<>(commitStage.getCommits());
-            pipelineCommitsOfCommitsStage.sort(Comparator.comparing(PipelineCommit::getScmCommitTimestamp).reversed());
+        }
+        added.sort(NEWEST_BUILD_FIRST);
+        List<PipelineCommit> retained = retain(merge(existingBuildStageCommits, kept, added), cutoff);
+        if (sameCommits(retained, existingBuildStageCommits)) {
+            return true;
+        }
+        LOG.info("Added {} pipeline commits to build stage, {} kept", added.size(), retained.size());
+        return teamcityPipelineRepository.updateBuildStageCommits(read, retained);
+    }
 
-            if (environmentStageMap.get(buildEnvironment) == null) {
-                environmentStageMap.put(buildEnvironment, new EnvironmentStage());
+    /**
+     * Returns the commits in the given order, only sorting them when they are not already in it.
+     */
+    private static List<PipelineCommit> inOrder(Collection<PipelineCommit> commits, Comparator<PipelineCommit> order) {
+        List<PipelineCommit> list = new ArrayList<>(commits);
+        for (int i = 1; i < list.size(); i++) {
+            if (order.compare(list.get(i - 1), list.get(i)) > 0) {
+                list.sort(order);
+                break;
             }
+        }
+        return list;
+    }
 
-            EnvironmentStage environmentStage = environmentStageMap.get(buildEnvironment);
-            if (environmentStage.getCommits() == null) {
-                environmentStage.setCommits(new HashSet<>());
+    /**
+     * Merges the newly built commits into the kept build stage commits, both newest build first,
+     * dropping repeated shas.
+     */
+    private static Set<PipelineCommit> merge(List<PipelineCommit> existing, Set<PipelineCommit> kept, List<PipelineCommit> added) {
+        Set<PipelineCommit> merged = new LinkedHashSet<>();
+        Iterator<PipelineCommit> keptCommits = existing.stream().filter(kept::contains).iterator();
+        Iterator<PipelineCommit> addedCommits = added.iterator();
+        PipelineCommit nextKept = keptCommits.hasNext() ? keptCommits.next() : null;
+        PipelineCommit nextAdded = addedCommits.hasNext() ? addedCommits.next() : null;
+        while (nextKept != null || nextAdded != null) {
+            if (nextAdded == null || (nextKept != null && NEWEST_BUILD_FIRST.compare(nextKept, nextAdded) <= 0)) {
+                merged.add(nextKept);
+                nextKept = keptCommits.hasNext() ? keptCommits.next() : null;
+            } else {
+                merged.add(nextAdded);
+                nextAdded = addedCommits.hasNext() ? addedCommits.next() : null;
             }
+        }
+        return merged;
+    }
 
-            Set<PipelineCommit> buildStageCommits = new HashSet<>();
-            //Add all existing commits and incoming commits, removing duplicates
-            buildStageCommits.addAll(environmentStage.getCommits());
-            buildStageCommits.addAll(commitsOfBuildStage);
-            Map<String, PipelineCommit> builtCommitsBySha = buildStageCommits.stream()
-                    .collect(Collectors.toMap(SCM::getScmRevisionNumber, x -> x));
-
-
-            List<PipelineCommit> finalSetOfBuiltCommits = new ArrayList<>();
-            long timestamp = 0;
-            for (PipelineCommit commit :
-                    pipelineCommitsOfCommitsStage) {
-                if (builtCommitsBySha.containsKey(commit.getScmRevisionNumber())) {
-                    PipelineCommit builtPipelineCommit = builtCommitsBySha.get(commit.getScmRevisionNumber());
-                    finalSetOfBuiltCommits.add(builtPipelineCommit);
-                    timestamp = builtPipelineCommit.getTimestamp();
-                } else {
-                    if (timestamp == 0) {
-                        //Skip these commits because they may not have been built!
-                        continue;
-                    }
-                    Gson gson = new Gson();
-                    PipelineCommit pipelineCommit = gson.fromJson(gson.toJson(commit), PipelineCommit.class);
-                    pipelineCommit.setTimestamp(timestamp);
-                    finalSetOfBuiltCommits.add(pipelineCommit);
-                }
+    /**
+     * Drops the commits built before the retention age and beyond the retention count, so the
+     * build stage of a pipeline stays bounded.
+     *
+     * @param commits the build stage commits, newest build first
+     * @param cutoff  the oldest build time kept
+     */
+    private List<PipelineCommit> retain(Set<PipelineCommit> commits, long cutoff) {
+        int maxCount = teamcitySettings.getPipelineCommitMaxCount() > 0 ? teamcitySettings.getPipelineCommitMaxCount() : Integer.MAX_VALUE;
+        List<PipelineCommit> retained = new ArrayList<>();
+        for (PipelineCommit commit : commits) {
+            // newest first, so nothing after the first commit past either limit is kept
+            if (retained.size() >= maxCount || commit.getTimestamp() < cutoff) {
+                break;
             }
-            LOG.info("Added {} pipeline commits to build stage", finalSetOfBuiltCommits.size());
-            finalSetOfBuiltCommits.sort(Comparator.comparing(PipelineCommit::getTimestamp).reversed());
-            environmentStage.setCommits(new LinkedHashSet<>(finalSetOfBuiltCommits));
-            pipelineRepository.save(pipeline);
+            retained.add(commit);
         }
+        return retained;
     }
-    protected Pipeline getOrCreatePipeline(CollectorItem collectorItem) {
-        Pipeline pipeline = pipelineRepository.findByCollectorItemId(collectorItem.getId());
-        if (pipeline == null) {
-            pipeline = new Pipeline();
-            pipeline.setCollectorItemId(collectorItem.getId());
+
+    /**
+     * @return the oldest build time of the commits to keep, 0 to keep them whatever their age
+     */
+    private long retentionCutoff() {
+        return teamcitySettings.getPipelineCommitMaxAgeDays() > 0
+                ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(teamcitySettings.getPipelineCommitMaxAgeDays()) : 0;
+    }
+
+    /**
+     * @return true if the commits are the very ones already stored, in the same order
+     */
+    private static boolean sameCommits(List<PipelineCommit> commits, List<PipelineCommit> stored) {
+        if (commits.size() != stored.size()) {
+            return false;
         }
-        return pipeline;
+        for (int i = 0; i < commits.size(); i++) {
+            if (commits.get(i) != stored.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shallow copy of a commit stage commit with the timestamp of the build stage. The SCM copy
+     * constructor leaves out the LDAP DN, committer and pull request number, so they are set here.
+     */
+    private static PipelineCommit copy(PipelineCommit commit, long timestamp) {
+        PipelineCommit copy = new PipelineCommit(commit, timestamp);
+        copy.setScmAuthorLDAPDN(commit.getScmAuthorLDAPDN());
+        copy.setScmCommitter(commit.getScmCommitter());
+        copy.setScmCommitterLogin(commit.getScmCommitterLogin());
+        copy.setPullNumber(commit.getPullNumber());
+        return copy;
     }
 }
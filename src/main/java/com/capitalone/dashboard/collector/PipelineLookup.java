@@ -0,0 +1,89 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.BaseModel;
+import com.capitalone.dashboard.model.Collector;
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.CollectorType;
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.repository.CollectorItemRepository;
+import com.capitalone.dashboard.repository.CollectorRepository;
+import com.capitalone.dashboard.repository.ComponentRepository;
+import com.capitalone.dashboard.repository.DashboardRepository;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The lookups of pipeline commit processing that give the same result for every job of a
+ * collection cycle. Each is loaded at most once per cycle, on first use, and shared by the jobs
+ * of all servers.
+ */
+class PipelineLookup {
+
+    private final ComponentRepository componentRepository;
+    private final DashboardRepository dashboardRepository;
+    private final Supplier<Map<String, CollectorItem>> jobItemsByProjectId;
+    private final Supplier<Map<String, List<CollectorItem>>> productItemsByDashboardId;
+    private final Map<ObjectId, Set<String>> dashboardIdsByJobItem = new ConcurrentHashMap<>();
+
+    PipelineLookup(ObjectId collectorId, CollectorRepository collectorRepository, CollectorItemRepository collectorItemRepository,
+                   ComponentRepository componentRepository, DashboardRepository dashboardRepository) {
+        this.componentRepository = componentRepository;
+        this.dashboardRepository = dashboardRepository;
+        this.jobItemsByProjectId = Suppliers.memoize(() -> {
+            Map<String, CollectorItem> items = new HashMap<>();
+            for (CollectorItem item : collectorItemRepository.findByCollectorIdIn(Collections.singletonList(collectorId))) {
+                Object projectId = item.getOptions().get("projectId");
+                if (projectId != null) {
+                    // the first item of a project wins, as with the former linear search
+                    items.putIfAbsent(projectId.toString(), item);
+                }
+            }
+            return items;
+        });
+        this.productItemsByDashboardId = Suppliers.memoize(() -> {
+            List<ObjectId> productCollectorIds = collectorRepository.findByCollectorType(CollectorType.Product)
+                    .stream().map(Collector::getId).collect(Collectors.toList());
+            Map<String, List<CollectorItem>> items = new HashMap<>();
+            for (CollectorItem item : collectorItemRepository.findByCollectorIdIn(productCollectorIds)) {
+                Object dashboardId = item.getOptions().get("dashboardId");
+                if (dashboardId != null) {
+                    items.computeIfAbsent(dashboardId.toString(), id -> new ArrayList<>()).add(item);
+                }
+            }
+            return items;
+        });
+    }
+
+    /**
+     * @return the ids of the dashboards with a component that shows the job of a Teamcity project
+     */
+    Set<String> dashboardIds(String projectId) {
+        CollectorItem jobItem = jobItemsByProjectId.get().get(projectId);
+        if (jobItem == null) {
+            return Collections.emptySet();
+        }
+        return dashboardIdsByJobItem.computeIfAbsent(jobItem.getId(), id -> {
+            List<ObjectId> componentIds = componentRepository.findByBuildCollectorItemId(id)
+                    .stream().map(Component::getId).collect(Collectors.toList());
+            return dashboardRepository.findByApplicationComponentIdsIn(componentIds)
+                    .stream().map(dashboard -> dashboard.getId().toString()).collect(Collectors.toSet());
+        });
+    }
+
+    /**
+     * @return the product collector items of a dashboard, whose pipelines hold its commits
+     */
+    List<CollectorItem> productItems(String dashboardId) {
+        return productItemsByDashboardId.get().getOrDefault(dashboardId, Collections.emptyList());
+    }
+}
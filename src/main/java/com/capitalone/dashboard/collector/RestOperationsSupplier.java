@@ -1,11 +1,19 @@
 package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.util.Supplier;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.ssl.TrustStrategy;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
@@ -13,22 +21,81 @@ import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.SSLContext;
+import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * Supplier that returns an instance of RestOperations
+ * Supplier that returns an instance of RestOperations backed by a pooled, keep-alive
+ * HttpClient that honors the configured timeouts.
  */
 @Component
-public class RestOperationsSupplier implements Supplier<RestOperations> {
+public class RestOperationsSupplier implements Supplier<RestOperations>, DisposableBean {
     @Autowired
     TeamcitySettings settings;
 
+    // one client, and so one pool and one idle connection evictor, shared by every RestOperations supplied
+    private volatile PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+
     @Override
     public RestOperations get() {
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
+        requestFactory.setHttpClient(httpClient());
+        requestFactory.setConnectTimeout(settings.getConnectTimeout());
+        requestFactory.setConnectionRequestTimeout(settings.getConnectTimeout());
+        requestFactory.setReadTimeout(settings.getReadTimeout());
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        return restTemplate;
+    }
+
+    /**
+     * Builds the client on first use. The client owns the pool, so its evictor thread is started and
+     * closes idle and expired connections, which a client on a shared pool would not do.
+     */
+    private synchronized CloseableHttpClient httpClient() {
+        if (httpClient == null) {
+            SSLContext sslContext = trustAllSslContext();
+            SSLConnectionSocketFactory csf = new SSLConnectionSocketFactory(sslContext, new NoopHostnameVerifier());
+            PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", csf)
+                    .build());
+            manager.setMaxTotal(settings.getMaxConnections());
+            manager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+
+            // keep connections alive as long as the server allows, or for the configured time if it doesn't say
+            ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+                long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAlive > 0 ? keepAlive : settings.getKeepAlive();
+            };
+            // gzip is requested and decoded by the client's default content compression handling
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(manager)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(settings.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS)
+                    .build();
+            connectionManager = manager;
+        }
+        return httpClient;
+    }
+
+    /**
+     * Stops the evictor and closes the pooled connections.
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    static SSLContext trustAllSslContext() {
         TrustStrategy acceptingTrustStrategy = new TrustStrategy() {
             @Override
             public boolean isTrusted(java.security.cert.X509Certificate[] x509Certificates, String s) throws CertificateException {
@@ -46,11 +113,14 @@ public class RestOperationsSupplier implements Supplier<RestOperations> {
         } catch (KeyStoreException e) {
             e.printStackTrace();
         }
-        SSLConnectionSocketFactory csf = new SSLConnectionSocketFactory(sslContext, new NoopHostnameVerifier());
-        CloseableHttpClient httpClient = HttpClients.custom().setSSLSocketFactory(csf).build();
-        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
-        requestFactory.setHttpClient(httpClient);
-        RestTemplate restTemplate = new RestTemplate(requestFactory);
-        return restTemplate;
+        return sslContext;
+    }
+
+    /**
+     * @return the leased, pending, available and max connections of the pool, or null before the first {@link #get()}
+     */
+    public PoolStats getPoolStats() {
+        PoolingHttpClientConnectionManager manager = connectionManager;
+        return manager == null ? null : manager.getTotalStats();
     }
 }
@@ -0,0 +1,68 @@
+package com.capitalone.dashboard.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lightweight view of a Teamcity build as read from the REST API. Build list entries
+ * only carry the id, status and state; build details also carry dates and revisions.
+ */
+class TeamcityBuild {
+    private String id;
+    private String status;
+    private String state;
+    private String startDate;
+    private String finishDate;
+    private final List<String> revisions = new ArrayList<>();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(String startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getFinishDate() {
+        return finishDate;
+    }
+
+    public void setFinishDate(String finishDate) {
+        this.finishDate = finishDate;
+    }
+
+    /**
+     * @return the versions of the build's VCS revisions, in the order Teamcity lists them
+     */
+    public List<String> getRevisions() {
+        return revisions;
+    }
+
+    public boolean isFinished() {
+        return "finished".equals(state);
+    }
+}
@@ -0,0 +1,123 @@
+package com.capitalone.dashboard.collector;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token based parser for Teamcity build responses. Reads straight from the response stream
+ * and only keeps the fields the collector uses, skipping everything else without building
+ * a document of the whole response.
+ */
+final class TeamcityBuildParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private TeamcityBuildParser() {
+    }
+
+    /**
+     * Parses a build list response, e.g. {@code {"count":1,"build":[{"id":1,"status":"SUCCESS"}]}}.
+     *
+     * @param in the response body
+     * @return the builds of the page, empty if the body is empty
+     */
+    static List<TeamcityBuild> parseBuilds(InputStream in) throws IOException {
+        List<TeamcityBuild> builds = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return builds;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("build".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        builds.add(readBuild(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return builds;
+    }
+
+    /**
+     * Parses a single build response.
+     *
+     * @param in the response body
+     * @return the build or null if the body is empty
+     */
+    static TeamcityBuild parseBuild(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            return readBuild(parser);
+        }
+    }
+
+    // reads the fields of the build object the parser is positioned on, up to its END_OBJECT
+    private static TeamcityBuild readBuild(JsonParser parser) throws IOException {
+        TeamcityBuild build = new TeamcityBuild();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id":
+                    build.setId(parser.getValueAsString());
+                    break;
+                case "status":
+                    build.setStatus(parser.getValueAsString());
+                    break;
+                case "state":
+                    build.setState(parser.getValueAsString());
+                    break;
+                case "startDate":
+                    build.setStartDate(parser.getValueAsString());
+                    break;
+                case "finishDate":
+                    build.setFinishDate(parser.getValueAsString());
+                    break;
+                case "revisions":
+                    if (token == JsonToken.START_OBJECT) {
+                        readRevisions(parser, build);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return build;
+    }
+
+    // reads {"revision":[{"version":"sha"}, ...]}
+    private static void readRevisions(JsonParser parser, TeamcityBuild build) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("revision".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String revisionField = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("version".equals(revisionField)) {
+                            build.getRevisions().add(parser.getValueAsString());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.capitalone.dashboard.model.TeamcityProject;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Client for fetching job and build information from Hudson
@@ -25,7 +26,33 @@ public interface TeamcityClient {
     Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl);
 
     /**
-     * Fetch full populated build information for a build.
+     * Finds all of the configured jobs for a given instance and returns only the builds
+     * newer than the last build id already collected for each job. Jobs without a
+     * last build id are backfilled with their full build history.
+     *
+     * @param instanceUrl the URL for the Teamcity instance
+     * @param lastBuildIds the last collected build id of each known job
+     * @return a summary of every new build for each job on the instance
+     */
+    Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl, Map<TeamcityProject, Long> lastBuildIds);
+
+    /**
+     * Finds all of the configured jobs for a given instance, only listing the new builds of the
+     * jobs that are due. Jobs that are not due are returned without builds, jobs whose builds
+     * could not be listed without a {@link jobData#BUILD} entry.
+     *
+     * @param instanceUrl the URL for the Teamcity instance
+     * @param lastBuildIds the last collected build id of each known job
+     * @param due whether the builds of a job are to be listed
+     * @return a summary of every new build for each due job on the instance
+     * @see JobPollScheduler
+     */
+    Map<TeamcityProject, Map<jobData, Set<BaseModel>>> getInstanceProjects(String instanceUrl, Map<TeamcityProject, Long> lastBuildIds,
+                                                                           Predicate<TeamcityProject> due);
+
+    /**
+     * Fetch full populated build information for a build. The source change set only holds
+     * the revision of the build, see {@link CommitResolver}.
      *
      * @param buildUrl the url of the build
      * @param instanceUrl
@@ -15,6 +15,11 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.web.client.RestClientException;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 
@@ -29,31 +34,45 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
     private final TeamcityCollectorRepository teamcityCollectorRepository;
     private final TeamcityJobRepository teamcityJobRepository;
     private final BuildRepository buildRepository;
+    private final TeamcityBuildRepository teamcityBuildRepository;
     private final CollItemConfigHistoryRepository configRepository;
     private final TeamcityClient teamcityClient;
+    private final BuildDetailFetcher buildDetailFetcher;
+    private final CommitResolver commitResolver;
+    private final JobPollScheduler jobPollScheduler;
     private final TeamcitySettings teamcitySettings;
-    private final ComponentRepository dbComponentRepository;
     private final ConfigurationRepository configurationRepository;
     private PipelineCommitProcessor pipelineCommitProcessor;
+    private final RestOperationsSupplier restOperationsSupplier;
+    private final AsyncRestOperationsSupplier asyncRestOperationsSupplier;
 
     @Autowired
     public TeamcityCollectorTask(TaskScheduler taskScheduler,
                                  TeamcityCollectorRepository teamcityCollectorRepository,
                                  TeamcityJobRepository teamcityJobRepository,
-                                 BuildRepository buildRepository, CollItemConfigHistoryRepository configRepository, TeamcityClient teamcityClient,
+                                 BuildRepository buildRepository, TeamcityBuildRepository teamcityBuildRepository,
+                                 CollItemConfigHistoryRepository configRepository, TeamcityClient teamcityClient,
+                                 BuildDetailFetcher buildDetailFetcher, CommitResolver commitResolver,
+                                 JobPollScheduler jobPollScheduler,
                                  TeamcitySettings teamcitySettings,
-                                 ComponentRepository dbComponentRepository,
-                                 ConfigurationRepository configurationRepository, PipelineCommitProcessor pipelineCommitProcessor) {
+                                 ConfigurationRepository configurationRepository, PipelineCommitProcessor pipelineCommitProcessor,
+                                 RestOperationsSupplier restOperationsSupplier,
+                                 AsyncRestOperationsSupplier asyncRestOperationsSupplier) {
         super(taskScheduler, "Teamcity");
         this.teamcityCollectorRepository = teamcityCollectorRepository;
         this.teamcityJobRepository = teamcityJobRepository;
         this.buildRepository = buildRepository;
+        this.teamcityBuildRepository = teamcityBuildRepository;
         this.configRepository = configRepository;
         this.teamcityClient = teamcityClient;
+        this.buildDetailFetcher = buildDetailFetcher;
+        this.commitResolver = commitResolver;
+        this.jobPollScheduler = jobPollScheduler;
         this.teamcitySettings = teamcitySettings;
-        this.dbComponentRepository = dbComponentRepository;
         this.configurationRepository = configurationRepository;
         this.pipelineCommitProcessor = pipelineCommitProcessor;
+        this.restOperationsSupplier = restOperationsSupplier;
+        this.asyncRestOperationsSupplier = asyncRestOperationsSupplier;
     }
 
     @Override
@@ -91,31 +110,92 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
         Set<ObjectId> udId = new HashSet<>();
         udId.add(collector.getId());
         List<TeamcityProject> existingJobs = teamcityJobRepository.findByCollectorIdIn(udId);
-        List<TeamcityProject> activeJobs = new ArrayList<>();
-        List<String> activeServers = new ArrayList<>(collector.getBuildServers());
+        // stored jobs that servers collected successfully no longer have, jobs of any other server are kept until it recovers
+        List<TeamcityProject> removedJobs = Collections.synchronizedList(new ArrayList<>());
 
         clean(collector, existingJobs);
+        JobIndex existingJobIndex = new JobIndex(existingJobs);
+        PipelineCommitBatch pipelineCommits = pipelineCommitProcessor.newBatch(collector.getId());
+        commitResolver.clear();
+        Map<TeamcityProject, Long> lastBuildIds = teamcitySettings.isListNewBuildsOnly() ? lastBuildIds(existingJobs) : Collections.emptyMap();
+        // only the builds of enabled jobs are collected, so only theirs are listed. With adaptive polling only the
+        // builds of due jobs are, the cron only sets the pace of the checks
+        Set<TeamcityProject> collectedJobs = existingJobs.stream()
+                .filter(job -> job.isEnabled() && !job.isPushed())
+                .collect(Collectors.toSet());
+        Predicate<TeamcityProject> due = teamcitySettings.isAdaptivePolling() ? jobPollScheduler.due(start) : job -> true;
+        Predicate<TeamcityProject> listed = job -> collectedJobs.contains(job) && due.test(job);
 
-        for (String instanceUrl : collector.getBuildServers()) {
-            logBanner(instanceUrl);
+        List<String> servers = collector.getBuildServers();
+        if (!servers.isEmpty()) {
+            int threads = Math.max(1, Math.min(teamcitySettings.getServerThreads(), servers.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
             try {
-                Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob = teamcityClient
-                        .getInstanceProjects(instanceUrl);
-                log("Fetched jobs", start);
-                activeJobs.addAll(dataByJob.keySet());
-                addNewJobs(dataByJob.keySet(), existingJobs, collector);
-                addNewBuilds(enabledJobs(collector, instanceUrl), dataByJob);
-                addNewConfigs(enabledJobs(collector, instanceUrl), dataByJob);
-                log("Finished", start);
-            } catch (RestClientException rce) {
-                LOG.error("Fetching project details failed", rce);
-                activeServers.remove(instanceUrl); // since it was a rest exception, we will not delete this job  and wait for
-                // rest exceptions to clear up at a later run.
-                log("Error getting jobs for: " + instanceUrl, start);
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (String instanceUrl : servers) {
+                    tasks.add(() -> {
+                        collectServer(instanceUrl, collector, existingJobIndex, lastBuildIds, listed, pipelineCommits, removedJobs, start);
+                        return null;
+                    });
+                }
+                executor.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                LOG.error("Interrupted while collecting from Teamcity servers", e);
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
             }
         }
+        // each pipeline is merged and written once, with the commits of all the jobs that feed it
+        pipelineCommitProcessor.processPipelineCommits(pipelineCommits);
         // Delete jobs that will be no longer collected because servers have moved etc.
-        deleteUnwantedJobs(activeJobs, existingJobs, activeServers, collector);
+        deleteUnwantedJobs(removedJobs, existingJobs, collector);
+        LOG.info("Teamcity connection pool: {}", restOperationsSupplier.getPoolStats());
+        if (teamcitySettings.getDetailFetchMode() == TeamcitySettings.DetailFetchMode.ASYNC) {
+            LOG.info("Teamcity async connection pool: {}", asyncRestOperationsSupplier.getPoolStats());
+        }
+        LOG.info("Commit cache: {} hits, {} misses", commitResolver.getHits(), commitResolver.getMisses());
+        if (teamcitySettings.isAdaptivePolling()) {
+            LOG.info("Jobs waiting for their next poll: {}", jobPollScheduler.getQueued());
+        }
+    }
+
+    /**
+     * Collects the jobs, builds and configs of a single Teamcity server. Any failure is contained
+     * to the server, whose stored jobs are then not considered removed.
+     */
+    private void collectServer(String instanceUrl, TeamcityCollector collector, JobIndex existingJobIndex,
+                               Map<TeamcityProject, Long> lastBuildIds, Predicate<TeamcityProject> listed,
+                               PipelineCommitBatch pipelineCommits,
+                               List<TeamcityProject> removedJobs, long start) {
+        logBanner(instanceUrl);
+        JobUnitOfWork jobUpdates = new JobUnitOfWork(teamcityJobRepository);
+        try {
+            Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob = teamcityClient
+                    .getInstanceProjects(instanceUrl, lastBuildIds, listed);
+            log("Fetched jobs", start);
+            JobIndex.Reconciliation reconciliation = existingJobIndex.reconcile(dataByJob.keySet(), instanceUrl);
+            addNewJobs(reconciliation, collector, jobUpdates);
+            jobUpdates.flush();
+            Set<TeamcityProject> jobsWithNewBuilds = addNewBuilds(enabledJobs(collector, instanceUrl), dataByJob, pipelineCommits, jobUpdates);
+            if (teamcitySettings.isAdaptivePolling()) {
+                recordPolls(dataByJob, listed, jobsWithNewBuilds);
+            }
+            addNewConfigs(enabledJobs(collector, instanceUrl), dataByJob, jobUpdates);
+            removedJobs.addAll(reconciliation.getDeletes());
+            log("Finished", start);
+        } catch (RestClientException rce) {
+            LOG.error("Fetching project details failed", rce);
+            // since it was a rest exception, we will not delete this job and wait for
+            // rest exceptions to clear up at a later run.
+            log("Error getting jobs for: " + instanceUrl, start);
+        } catch (RuntimeException re) {
+            LOG.error("Collecting from " + instanceUrl + " failed", re);
+            log("Error collecting: " + instanceUrl, start);
+        } finally {
+            // one partial update per changed job, whatever the number of changes, for what is left
+            jobUpdates.flush();
+        }
     }
 
     /**
@@ -126,22 +206,7 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
      */
 
     private void clean(TeamcityCollector collector, List<TeamcityProject> existingJobs) {
-        Set<ObjectId> uniqueIDs = new HashSet<>();
-        for (com.capitalone.dashboard.model.Component comp : dbComponentRepository
-                .findAll()) {
-
-            if (CollectionUtils.isEmpty(comp.getCollectorItems())) continue;
-
-            List<CollectorItem> itemList = comp.getCollectorItems().get(CollectorType.Build);
-
-            if (CollectionUtils.isEmpty(itemList)) continue;
-
-            for (CollectorItem ci : itemList) {
-                if (collector.getId().equals(ci.getCollectorId())) {
-                    uniqueIDs.add(ci.getId());
-                }
-            }
-        }
+        Set<ObjectId> uniqueIDs = teamcityJobRepository.findIdsOnDashboards(collector.getId());
         List<TeamcityProject> stateChangeJobList = new ArrayList<>();
         for (TeamcityProject job : existingJobs) {
             if ((job.isEnabled() && !uniqueIDs.contains(job.getId())) ||  // if it was enabled but not on a dashboard
@@ -158,13 +223,14 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
     /**
      * Delete orphaned job collector items
      *
-     * @param activeJobs
+     * @param removedJobs  stored jobs that their server no longer has
      * @param existingJobs
-     * @param activeServers
      * @param collector
      */
-    private void deleteUnwantedJobs(List<TeamcityProject> activeJobs, List<TeamcityProject> existingJobs, List<String> activeServers, TeamcityCollector collector) {
+    private void deleteUnwantedJobs(List<TeamcityProject> removedJobs, List<TeamcityProject> existingJobs, TeamcityCollector collector) {
 
+        Set<TeamcityProject> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(removedJobs);
         List<TeamcityProject> deleteJobList = new ArrayList<>();
         for (TeamcityProject job : existingJobs) {
             if (job.isPushed()) continue; // build servers that push jobs will not be in active servers list by design
@@ -180,13 +246,29 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
             }
 
             // this is to handle jobs that have been deleted from build servers. Will get 404 if we don't delete them.
-            if (activeServers.contains(job.getInstanceUrl()) && !activeJobs.contains(job)) {
+            if (removed.contains(job)) {
                 deleteJobList.add(job);
             }
 
         }
         if (!CollectionUtils.isEmpty(deleteJobList)) {
             teamcityJobRepository.delete(deleteJobList);
+            jobPollScheduler.forget(deleteJobList);
+        }
+    }
+
+    /**
+     * Queues each job whose builds were listed for its next poll, sooner if it had new builds.
+     */
+    private void recordPolls(Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob,
+                             Predicate<TeamcityProject> listed, Set<TeamcityProject> jobsWithNewBuilds) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> jobData : dataByJob.entrySet()) {
+            TeamcityProject job = jobData.getKey();
+            // a job whose builds could not be listed is not backed off, so it is polled next time
+            if (listed.test(job) && jobData.getValue().get(TeamcityClient.jobData.BUILD) != null) {
+                jobPollScheduler.record(job, jobsWithNewBuilds.contains(job), now);
+            }
         }
     }
 
@@ -195,54 +277,164 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
      *
      * @param enabledJobs list of enabled {@link TeamcityProject}s
      * @param dataByJob   maps a {@link TeamcityProject} to a map of data with {@link Build}s.
+     * @param batch       collects the pipeline commits of the cycle
+     * @param jobUpdates  collects the changes to the jobs
+     * @return the jobs that had new builds
      */
-    private void addNewBuilds(List<TeamcityProject> enabledJobs,
-                              Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob) {
+    private Set<TeamcityProject> addNewBuilds(List<TeamcityProject> enabledJobs,
+                              Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob,
+                              PipelineCommitBatch batch, JobUnitOfWork jobUpdates) {
         long start = System.currentTimeMillis();
         int count = 0;
 
-        for (TeamcityProject job : enabledJobs) {
-            if (job.isPushed()) continue;
-            // process new builds in the order of their build numbers - this has implication to handling of commits in BuildEventListener
+        // the writer starts first, so new builds are written while the next ones are still being fetched
+        BuildWriter buildWriter = new BuildWriter(teamcityBuildRepository, teamcitySettings.getWriteQueueSize(),
+                teamcitySettings.getBuildBatchSize(), teamcitySettings.getWriteFlushInterval());
+        int chunkSize = Math.max(1, teamcitySettings.getBuildBatchSize());
+        Map<TeamcityProject, Long> lastBuildIds = new LinkedHashMap<>();
+        Map<TeamcityProject, Long> firstMissedBuildIds = new HashMap<>();
+        Map<TeamcityProject, Long> firstNewBuildIds = new HashMap<>();
+        Set<TeamcityProject> jobsWithNewBuilds = new HashSet<>();
+        try {
+            // concurrent fetch modes start fetching the details of every job first, to overlap jobs as well as builds.
+            // Sequential fetches block, so they are made one batch of builds at a time right before the batch is
+            // processed, instead of holding the details of the whole server in memory
+            Map<TeamcityProject, List<BaseModel>> buildsByJob = new LinkedHashMap<>();
+            Map<TeamcityProject, Set<String>> storedNumbersByJob = new HashMap<>();
+            Map<TeamcityProject, Map<String, CompletableFuture<Build>>> detailsByJob = new HashMap<>();
+            for (TeamcityProject job : enabledJobs) {
+                if (job.isPushed()) continue;
+
+                Map<TeamcityClient.jobData, Set<BaseModel>> jobDataSetMap = dataByJob.get(job);
+                if (jobDataSetMap == null) {
+                    continue;
+                }
+                Set<BaseModel> buildsSet = jobDataSetMap.get(TeamcityClient.jobData.BUILD);
+                if (buildsSet == null) {
+                    // the builds could not be listed, the job keeps its mark
+                    continue;
+                }
 
-            Map<TeamcityClient.jobData, Set<BaseModel>> jobDataSetMap = dataByJob.get(job);
-            if (jobDataSetMap == null) {
-                continue;
+                List<BaseModel> builds = Lists.newArrayList(buildsSet);
+                Set<String> storedNumbers = teamcitySettings.isSkipStoredBuilds() ? storedBuildNumbers(job, builds) : null;
+                if (buildDetailFetcher.isConcurrent()) {
+                    detailsByJob.put(job, fetchNewBuildDetails(job, builds, storedNumbers));
+                }
+                buildsByJob.put(job, builds);
+                if (storedNumbers != null) {
+                    storedNumbersByJob.put(job, storedNumbers);
+                }
             }
-            Set<BaseModel> buildsSet = jobDataSetMap.get(TeamcityClient.jobData.BUILD);
-
-            ArrayList<BaseModel> builds = Lists.newArrayList(nullSafe(buildsSet));
-            List<PipelineCommit> pipelineCommits = new ArrayList<>();
-            String projectId = job.getOptions().get("projectId").toString();
-
-            for (BaseModel buildSummary : builds) {
-                Build build = teamcityClient.getBuildDetails(((Build) buildSummary)
-                        .getBuildUrl(), job.getInstanceUrl());
-                if (isNewBuild(job, (Build) buildSummary)) {
-                    job.setLastUpdated(System.currentTimeMillis());
-                    teamcityJobRepository.save(job);
-                    if (build != null) {
-                        build.setCollectorItemId(job.getId());
-                        buildRepository.save(build);
+
+            for (Map.Entry<TeamcityProject, List<BaseModel>> jobBuilds : buildsByJob.entrySet()) {
+                TeamcityProject job = jobBuilds.getKey();
+                // process new builds in the order of their build numbers - this has implication to handling of commits in BuildEventListener
+                List<BaseModel> builds = jobBuilds.getValue();
+                Set<String> storedNumbers = storedNumbersByJob.get(job);
+                Map<String, CompletableFuture<Build>> prefetched = detailsByJob.remove(job);
+                List<PipelineCommit> pipelineCommits = new ArrayList<>();
+                String projectId = job.getOptions().get("projectId").toString();
+
+                long lastBuildId = job.getLastBuildId() == null ? 0 : job.getLastBuildId();
+                // the lowest new build not collected yet, still running or whose details could not be fetched,
+                // and the lowest one written
+                long firstMissedBuildId = Long.MAX_VALUE;
+                long firstNewBuildId = Long.MAX_VALUE;
+                boolean updated = false;
+                for (List<BaseModel> chunk : Lists.partition(builds, chunkSize)) {
+                    Map<String, CompletableFuture<Build>> details = prefetched != null
+                            ? prefetched : fetchNewBuildDetails(job, chunk, storedNumbers);
+                    Map<String, Build> chunkDetails = new HashMap<>();
+                    for (BaseModel buildSummary : chunk) {
+                        CompletableFuture<Build> detail = details.get(((Build) buildSummary).getNumber());
+                        Build build = detail == null ? null : detail.join();
+                        if (build != null) {
+                            chunkDetails.put(((Build) buildSummary).getNumber(), build);
+                        }
+                    }
+                    commitResolver.resolve(chunkDetails.values());
+
+                    for (BaseModel buildSummary : chunk) {
+                        Build build = chunkDetails.get(((Build) buildSummary).getNumber());
+                        long buildId = toBuildId((Build) buildSummary);
+                        lastBuildId = Math.max(lastBuildId, buildId);
+                        if (((Build) buildSummary).getBuildStatus() == BuildStatus.InProgress) {
+                            // build ids are given when builds are queued, so the builds after this one may finish
+                            // first. The mark stays below it until it finishes too, or it would never be listed again
+                            firstMissedBuildId = Math.min(firstMissedBuildId, buildId);
+                            continue;
+                        }
+                        boolean stored = storedNumbers != null ? storedNumbers.contains(((Build) buildSummary).getNumber())
+                                : !isNewBuild(job, (Build) buildSummary);
+                        if (!stored) {
+                            updated = true;
+                            if (build != null) {
+                                build.setCollectorItemId(job.getId());
+                                buildWriter.write(build);
+                                firstNewBuildId = Math.min(firstNewBuildId, buildId);
+                            } else {
+                                firstMissedBuildId = Math.min(firstMissedBuildId, buildId);
+                            }
+                            count++;
+                        }
+
+                        if (build != null) {
+                            long timestamp = build.getTimestamp();
+                            pipelineCommits.addAll(build.getSourceChangeSet()
+                                    .stream()
+                                    .map(scm -> new PipelineCommit(scm, timestamp))
+                                    .collect(Collectors.toList()));
+                        }
                     }
-                    count++;
                 }
+                if (updated) {
+                    jobUpdates.setLastUpdated(job, System.currentTimeMillis());
+                    jobsWithNewBuilds.add(job);
+                }
+                lastBuildIds.put(job, lastBuildId);
+                firstMissedBuildIds.put(job, firstMissedBuildId);
+                firstNewBuildIds.put(job, firstNewBuildId);
+                batch.add(projectId, pipelineCommits);
 
-                if (build != null) {
-                    pipelineCommits.addAll(build.getSourceChangeSet()
-                            .stream()
-                            .map(scm -> new PipelineCommit(scm, build.getTimestamp()))
-                            .collect(Collectors.toList()));
+            }
+        } finally {
+            Set<ObjectId> failedJobs = buildWriter.drain();
+            // the high-water marks stop just below the first new build that did not make it to the database,
+            // so it is listed again by the next collection. Jobs processed before a failure still get theirs
+            for (Map.Entry<TeamcityProject, Long> jobMark : lastBuildIds.entrySet()) {
+                TeamcityProject job = jobMark.getKey();
+                long firstFailedBuildId = firstMissedBuildIds.get(job);
+                if (failedJobs.contains(job.getId())) {
+                    LOG.error("Saving new builds of " + job.getJobName() + " failed");
+                    firstFailedBuildId = Math.min(firstFailedBuildId, firstNewBuildIds.get(job));
+                }
+                long lastBuildId = Math.min(jobMark.getValue(), firstFailedBuildId - 1);
+                if (lastBuildId > 0 && (job.getLastBuildId() == null || lastBuildId > job.getLastBuildId())) {
+                    jobUpdates.setLastBuildId(job, lastBuildId);
                 }
+                jobUpdates.flush(job);
             }
-            pipelineCommitProcessor.processPipelineCommits(pipelineCommits, job.getCollectorId(), projectId);
-
         }
         log("New builds", start, count);
+        return jobsWithNewBuilds;
+    }
+
+    /**
+     * Starts fetching the details of the finished builds of a job that are not stored yet. Stored builds went
+     * through the pipeline when they were added, so only new ones need their details.
+     */
+    private Map<String, CompletableFuture<Build>> fetchNewBuildDetails(TeamcityProject job, List<BaseModel> builds,
+                                                                       Set<String> storedNumbers) {
+        return buildDetailFetcher.fetch(job, builds.stream()
+                .map(b -> (Build) b)
+                .filter(b -> b.getBuildStatus() != BuildStatus.InProgress)
+                .filter(b -> storedNumbers == null || !storedNumbers.contains(b.getNumber()))
+                .collect(Collectors.toList()));
     }
 
     private void addNewConfigs(List<TeamcityProject> enabledJobs,
-                               Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob) {
+                               Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> dataByJob,
+                               JobUnitOfWork jobUpdates) {
         long start = System.currentTimeMillis();
         int count = 0;
 
@@ -262,8 +454,7 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
 
             for (BaseModel config : configs) {
                 if (config != null && isNewConfig(job, (CollectorItemConfigHistory) config)) {
-                    job.setLastUpdated(System.currentTimeMillis());
-                    teamcityJobRepository.save(job);
+                    jobUpdates.setLastUpdated(job, System.currentTimeMillis());
                     ((CollectorItemConfigHistory) config).setCollectorItemId(job.getId());
                     configRepository.save((CollectorItemConfigHistory) config);
                     count++;
@@ -280,48 +471,43 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
     /**
      * Adds new {@link TeamcityProject}s to the database as disabled jobs.
      *
-     * @param jobs         list of {@link TeamcityProject}s
-     * @param existingJobs
-     * @param collector    the {@link TeamcityCollector}
+     * @param reconciliation the jobs of a server sorted into new and stored jobs
+     * @param collector      the {@link TeamcityCollector}
+     * @param jobUpdates     collects the changes to existing jobs
      */
-    private void addNewJobs(Set<TeamcityProject> jobs, List<TeamcityProject> existingJobs, TeamcityCollector collector) {
+    private void addNewJobs(JobIndex.Reconciliation reconciliation, TeamcityCollector collector, JobUnitOfWork jobUpdates) {
         long start = System.currentTimeMillis();
         int count = 0;
 
         List<TeamcityProject> newJobs = new ArrayList<>();
-        for (TeamcityProject job : jobs) {
-            TeamcityProject existing = null;
-            if (!CollectionUtils.isEmpty(existingJobs) && (existingJobs.contains(job))) {
-                existing = existingJobs.get(existingJobs.indexOf(job));
+        for (TeamcityProject job : reconciliation.getInserts()) {
+            String niceName = getNiceName(job, collector);
+            String environment = getEnvironment(job, collector);
+            job.setCollectorId(collector.getId());
+            job.setEnabled(false); // Do not enable for collection. Will be enabled when added to dashboard
+            job.setDescription(job.getJobName());
+            if (StringUtils.isNotEmpty(niceName)) {
+                job.setNiceName(niceName);
             }
-
+            if (StringUtils.isNotEmpty(environment)) {
+                job.setEnvironment(environment);
+            }
+            newJobs.add(job);
+            count++;
+        }
+        for (Map.Entry<TeamcityProject, TeamcityProject> update : reconciliation.getUpdates().entrySet()) {
+            TeamcityProject job = update.getKey();
+            TeamcityProject existing = update.getValue();
             String niceName = getNiceName(job, collector);
             String environment = getEnvironment(job, collector);
-            if (existing == null) {
-                job.setCollectorId(collector.getId());
-                job.setEnabled(false); // Do not enable for collection. Will be enabled when added to dashboard
-                job.setDescription(job.getJobName());
-                if (StringUtils.isNotEmpty(niceName)) {
-                    job.setNiceName(niceName);
-                }
-                if (StringUtils.isNotEmpty(environment)) {
-                    job.setEnvironment(environment);
-                }
-                newJobs.add(job);
-                count++;
-            } else {
-                if (StringUtils.isEmpty(existing.getNiceName()) && StringUtils.isNotEmpty(niceName)) {
-                    existing.setNiceName(niceName);
-                    teamcityJobRepository.save(existing);
-                }
-                if (StringUtils.isEmpty(existing.getEnvironment()) && StringUtils.isNotEmpty(environment)) {
-                    existing.setEnvironment(environment);
-                    teamcityJobRepository.save(existing);
-                }
-                if (StringUtils.isEmpty(existing.getInstanceUrl())) {
-                    existing.setInstanceUrl(job.getInstanceUrl());
-                    teamcityJobRepository.save(existing);
-                }
+            if (StringUtils.isEmpty(existing.getNiceName()) && StringUtils.isNotEmpty(niceName)) {
+                jobUpdates.setNiceName(existing, niceName);
+            }
+            if (StringUtils.isEmpty(existing.getEnvironment()) && StringUtils.isNotEmpty(environment)) {
+                jobUpdates.setEnvironment(existing, environment);
+            }
+            if (StringUtils.isEmpty(existing.getInstanceUrl())) {
+                jobUpdates.setInstanceUrl(existing, job.getInstanceUrl());
             }
         }
         //save all in one shot
@@ -369,6 +555,37 @@ public class TeamcityCollectorTask extends CollectorTask<TeamcityCollector> {
                 job.getInstanceUrl(), job.getJobName());
     }
 
+    private Map<TeamcityProject, Long> lastBuildIds(List<TeamcityProject> existingJobs) {
+        Map<TeamcityProject, Long> lastBuildIds = new HashMap<>();
+        for (TeamcityProject job : existingJobs) {
+            if (job.getLastBuildId() != null) {
+                lastBuildIds.put(job, job.getLastBuildId());
+            }
+        }
+        return lastBuildIds;
+    }
+
+    private long toBuildId(Build build) {
+        try {
+            return Long.parseLong(build.getNumber());
+        } catch (NumberFormatException e) {
+            LOG.warn("Unexpected Teamcity build id " + build.getNumber());
+            return 0;
+        }
+    }
+
+    /**
+     * Finds the numbers of the given builds already stored for the job with a single query.
+     */
+    private Set<String> storedBuildNumbers(TeamcityProject job, List<BaseModel> builds) {
+        if (builds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<String> numbers = builds.stream().map(b -> ((Build) b).getNumber()).collect(Collectors.toList());
+        return teamcityBuildRepository.findNumbersByCollectorItemIdAndNumberIn(job.getId(), numbers)
+                .stream().map(Build::getNumber).collect(Collectors.toSet());
+    }
+
     private boolean isNewBuild(TeamcityProject job, Build build) {
         return buildRepository.findByCollectorItemIdAndNumber(job.getId(),
                 build.getNumber()) == null;
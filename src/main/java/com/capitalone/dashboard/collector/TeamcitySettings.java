@@ -15,6 +15,7 @@ import java.util.List;
 @ConfigurationProperties(prefix = "Teamcity")
 public class TeamcitySettings {
 
+    public enum DetailFetchMode {SEQUENTIAL, ASYNC, VIRTUAL_THREADS}
 
     private String cron;
     private boolean saveLog = false;
@@ -26,7 +27,7 @@ public class TeamcitySettings {
     private String dockerLocalHostIP; //null if not running in docker on http://localhost
     private String projectIds = "";
     @Value("${folderDepth:10}")
-    private int folderDepth;
+    private int folderDepth = 10;
 
     @Value("${teamcity.connectTimeout:20000}")
     private int connectTimeout;
@@ -37,6 +38,61 @@ public class TeamcitySettings {
     @Value("${teamcity.branchesToMonitor:master}")
     private String branchesToMonitor;
 
+    //only fetch details of builds that are not stored yet, found with one query per job
+    private boolean skipStoredBuilds = false;
+
+    //only list the builds after each job's last collected build, instead of its whole history on every run
+    private boolean listNewBuildsOnly = false;
+
+    //new builds written per bulk upsert
+    private int buildBatchSize = 500;
+
+    //new builds queued for the background writer, which writes a batch when full or at the flush interval in milliseconds
+    private int writeQueueSize = 2000;
+    private long writeFlushInterval = 1000;
+
+    //commits kept by sha across a collection, to resolve the revisions of new builds
+    private int commitCacheSize = 10000;
+
+    //create the indexes the collector queries rely on at startup, and warn about collection scans
+    private boolean ensureIndexes = true;
+
+    //number of pipelines updated at the same time, and the attempts to re-read and merge a pipeline written concurrently
+    private int pipelineThreads = 1;
+    private int pipelineUpdateRetries = 3;
+
+    //build stage commits kept per pipeline, newest build first, 0 for no limit
+    private int pipelineCommitMaxAgeDays = 0;
+    private int pipelineCommitMaxCount = 0;
+
+    //poll each job on its own interval, from minPollInterval while it builds, doubling up to maxPollInterval while idle (ms)
+    private boolean adaptivePolling = false;
+    private long minPollInterval = 60000;
+    private long maxPollInterval = 21600000;
+
+    //number of servers collected at the same time
+    private int serverThreads = 4;
+
+    //number of sibling subprojects fetched at the same time while walking a project tree
+    private int projectThreads = 4;
+
+    //http connection pool, sized for the servers and subprojects collected at the same time
+    private int maxConnections = 50;
+    private int maxConnectionsPerRoute = 20;
+    private long idleConnectionTimeout = 30000;
+    private long keepAlive = 30000;
+
+    //how build details are fetched: SEQUENTIAL one blocking request at a time, ASYNC on a non-blocking client,
+    //VIRTUAL_THREADS a blocking request per virtual thread (platform pool before Java 21)
+    private DetailFetchMode detailFetchMode = DetailFetchMode.SEQUENTIAL;
+
+    //build detail requests in flight per server in the ASYNC and VIRTUAL_THREADS modes
+    private int maxRequestsPerServer = 20;
+
+    //fields= projections of the build list and build detail responses, empty for the full representation
+    private String buildListFields = "count,build(id,status,state)";
+    private String buildDetailFields = "id,status,state,startDate,finishDate,revisions(revision(version))";
+
     public String getCron() {
         return cron;
     }
@@ -141,4 +197,196 @@ public class TeamcitySettings {
     public void setBranchesToMonitor(String branchesToMonitor) {
         this.branchesToMonitor = branchesToMonitor;
     }
+
+    public boolean isSkipStoredBuilds() {
+        return skipStoredBuilds;
+    }
+
+    public void setSkipStoredBuilds(boolean skipStoredBuilds) {
+        this.skipStoredBuilds = skipStoredBuilds;
+    }
+
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    public void setServerThreads(int serverThreads) {
+        this.serverThreads = serverThreads;
+    }
+
+    public int getProjectThreads() {
+        return projectThreads;
+    }
+
+    public void setProjectThreads(int projectThreads) {
+        this.projectThreads = projectThreads;
+    }
+
+    public String getBuildListFields() {
+        return buildListFields;
+    }
+
+    public void setBuildListFields(String buildListFields) {
+        this.buildListFields = buildListFields;
+    }
+
+    public String getBuildDetailFields() {
+        return buildDetailFields;
+    }
+
+    public void setBuildDetailFields(String buildDetailFields) {
+        this.buildDetailFields = buildDetailFields;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public DetailFetchMode getDetailFetchMode() {
+        return detailFetchMode;
+    }
+
+    public void setDetailFetchMode(DetailFetchMode detailFetchMode) {
+        this.detailFetchMode = detailFetchMode;
+    }
+
+    public int getMaxRequestsPerServer() {
+        return maxRequestsPerServer;
+    }
+
+    public void setMaxRequestsPerServer(int maxRequestsPerServer) {
+        this.maxRequestsPerServer = maxRequestsPerServer;
+    }
+
+    public int getBuildBatchSize() {
+        return buildBatchSize;
+    }
+
+    public void setBuildBatchSize(int buildBatchSize) {
+        this.buildBatchSize = buildBatchSize;
+    }
+
+    public int getCommitCacheSize() {
+        return commitCacheSize;
+    }
+
+    public void setCommitCacheSize(int commitCacheSize) {
+        this.commitCacheSize = commitCacheSize;
+    }
+
+    public boolean isEnsureIndexes() {
+        return ensureIndexes;
+    }
+
+    public void setEnsureIndexes(boolean ensureIndexes) {
+        this.ensureIndexes = ensureIndexes;
+    }
+
+    public int getWriteQueueSize() {
+        return writeQueueSize;
+    }
+
+    public void setWriteQueueSize(int writeQueueSize) {
+        this.writeQueueSize = writeQueueSize;
+    }
+
+    public long getWriteFlushInterval() {
+        return writeFlushInterval;
+    }
+
+    public void setWriteFlushInterval(long writeFlushInterval) {
+        this.writeFlushInterval = writeFlushInterval;
+    }
+
+    public int getPipelineThreads() {
+        return pipelineThreads;
+    }
+
+    public void setPipelineThreads(int pipelineThreads) {
+        this.pipelineThreads = pipelineThreads;
+    }
+
+    public int getPipelineUpdateRetries() {
+        return pipelineUpdateRetries;
+    }
+
+    public void setPipelineUpdateRetries(int pipelineUpdateRetries) {
+        this.pipelineUpdateRetries = pipelineUpdateRetries;
+    }
+
+    public int getPipelineCommitMaxAgeDays() {
+        return pipelineCommitMaxAgeDays;
+    }
+
+    public void setPipelineCommitMaxAgeDays(int pipelineCommitMaxAgeDays) {
+        this.pipelineCommitMaxAgeDays = pipelineCommitMaxAgeDays;
+    }
+
+    public int getPipelineCommitMaxCount() {
+        return pipelineCommitMaxCount;
+    }
+
+    public void setPipelineCommitMaxCount(int pipelineCommitMaxCount) {
+        this.pipelineCommitMaxCount = pipelineCommitMaxCount;
+    }
+
+    public boolean isAdaptivePolling() {
+        return adaptivePolling;
+    }
+
+    public void setAdaptivePolling(boolean adaptivePolling) {
+        this.adaptivePolling = adaptivePolling;
+    }
+
+    public long getMinPollInterval() {
+        return minPollInterval;
+    }
+
+    public void setMinPollInterval(long minPollInterval) {
+        this.minPollInterval = minPollInterval;
+    }
+
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    public boolean isListNewBuildsOnly() {
+        return listNewBuildsOnly;
+    }
+
+    public void setListNewBuildsOnly(boolean listNewBuildsOnly) {
+        this.listNewBuildsOnly = listNewBuildsOnly;
+    }
 }
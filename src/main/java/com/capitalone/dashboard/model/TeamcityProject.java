@@ -5,6 +5,17 @@ package com.capitalone.dashboard.model;
  */
 public class TeamcityProject extends JobCollectorItem {
 
+    // id of the newest build already collected for this build type, null until the first import
+    private Long lastBuildId;
+
+    public Long getLastBuildId() {
+        return lastBuildId;
+    }
+
+    public void setLastBuildId(Long lastBuildId) {
+        this.lastBuildId = lastBuildId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,22 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Build;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Build queries specific to the Teamcity collector
+ */
+public interface TeamcityBuildRepository extends CrudRepository<Build, ObjectId>, TeamcityBuildRepositoryCustom {
+
+    /**
+     * Finds which of the given build numbers are already stored for a collector item.
+     * Only the number of each matching build is populated.
+     */
+    @Query(value = "{ 'collectorItemId' : ?0, 'number' : { $in : ?1 } }", fields = "{ 'number' : 1 }")
+    List<Build> findNumbersByCollectorItemIdAndNumberIn(ObjectId collectorItemId, Collection<String> numbers);
+}
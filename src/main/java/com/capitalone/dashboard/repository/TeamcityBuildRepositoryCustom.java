@@ -0,0 +1,18 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Build;
+
+import java.util.List;
+
+/**
+ * Bulk build writes for the Teamcity collector
+ */
+public interface TeamcityBuildRepositoryCustom {
+
+    /**
+     * Writes the builds with a single unordered bulk operation, inserting each one or replacing
+     * the build stored with the same collectorItemId and number. Ids of inserted builds are set
+     * on the given builds.
+     */
+    void upsertBuilds(List<Build> builds);
+}
@@ -0,0 +1,69 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Build;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteUpsert;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.List;
+
+/**
+ * Implements the bulk writes of {@link TeamcityBuildRepository} with the Mongo driver's bulk API.
+ */
+public class TeamcityBuildRepositoryImpl implements TeamcityBuildRepositoryCustom {
+    private static final Logger LOG = LoggerFactory.getLogger(TeamcityBuildRepositoryImpl.class);
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final String ID = "_id";
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public TeamcityBuildRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public void upsertBuilds(List<Build> builds) {
+        if (builds.isEmpty()) {
+            return;
+        }
+        BulkWriteResult result = mongoOperations.execute(Build.class, collection -> {
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            for (Build build : builds) {
+                DBObject document = new BasicDBObject();
+                mongoOperations.getConverter().write(build, document);
+                // new builds have no id yet, let the upsert generate one and a replacement keep the stored one
+                if (document.get(ID) == null) {
+                    document.removeField(ID);
+                }
+                bulk.find(new BasicDBObject("collectorItemId", build.getCollectorItemId()).append("number", build.getNumber()))
+                        .upsert().replaceOne(document);
+            }
+            try {
+                return bulk.execute();
+            } catch (BulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (error.getCode() != DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+                // a concurrent upsert stored the same builds first, which leaves the same documents behind
+                LOG.debug("Ignoring {} duplicate builds already stored by another writer", e.getWriteErrors().size());
+                return e.getWriteResult();
+            }
+        });
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            builds.get(upsert.getIndex()).setId((ObjectId) upsert.getId());
+        }
+    }
+}
@@ -3,6 +3,6 @@ package com.capitalone.dashboard.repository;
 import com.capitalone.dashboard.model.TeamcityProject;
 
 
-public interface TeamcityJobRepository extends JobRepository<TeamcityProject> {
+public interface TeamcityJobRepository extends JobRepository<TeamcityProject>, TeamcityJobRepositoryCustom {
 
 }
@@ -0,0 +1,29 @@
+package com.capitalone.dashboard.repository;
+
+import org.bson.types.ObjectId;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partial job updates for the Teamcity collector
+ */
+public interface TeamcityJobRepositoryCustom {
+
+    /**
+     * Sets the given fields of a job with a single $set update, leaving its other fields untouched.
+     *
+     * @param id     the id of the job
+     * @param fields the values to set by field path, e.g. options.instanceUrl
+     */
+    void updateFields(ObjectId id, Map<String, Object> fields);
+
+    /**
+     * Finds the ids of the jobs of a collector that are build collector items of a dashboard
+     * component. Only the build collector items of the matching components are read.
+     *
+     * @param collectorId the id of the collector
+     * @return the ids of the jobs on a dashboard
+     */
+    Set<ObjectId> findIdsOnDashboards(ObjectId collectorId);
+}
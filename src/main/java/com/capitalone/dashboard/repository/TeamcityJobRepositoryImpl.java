@@ -0,0 +1,68 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Implements the partial updates of {@link TeamcityJobRepository}.
+ */
+public class TeamcityJobRepositoryImpl implements TeamcityJobRepositoryCustom {
+
+    private static final String BUILD_ITEMS = "collectorItems.Build";
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public TeamcityJobRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public void updateFields(ObjectId id, Map<String, Object> fields) {
+        if (fields.isEmpty()) {
+            return;
+        }
+        Update update = new Update();
+        fields.forEach(update::set);
+        mongoOperations.updateFirst(query(where("_id").is(id)), update, TeamcityProject.class);
+    }
+
+    @Override
+    public Set<ObjectId> findIdsOnDashboards(ObjectId collectorId) {
+        DBObject query = new BasicDBObject(BUILD_ITEMS + ".collectorId", collectorId);
+        DBObject fields = new BasicDBObject("_id", 0)
+                .append(BUILD_ITEMS + "._id", 1)
+                .append(BUILD_ITEMS + ".collectorId", 1);
+        return mongoOperations.execute(Component.class, collection -> {
+            Set<ObjectId> ids = new HashSet<>();
+            try (DBCursor cursor = collection.find(query, fields)) {
+                for (DBObject component : cursor) {
+                    DBObject collectorItems = (DBObject) component.get("collectorItems");
+                    // a component can also hold build items of other collectors
+                    for (Object item : (List<?>) collectorItems.get("Build")) {
+                        DBObject buildItem = (DBObject) item;
+                        if (collectorId.equals(buildItem.get("collectorId"))) {
+                            ids.add((ObjectId) buildItem.get("_id"));
+                        }
+                    }
+                }
+            }
+            return ids;
+        });
+    }
+}
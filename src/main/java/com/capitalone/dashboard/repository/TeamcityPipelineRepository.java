@@ -0,0 +1,11 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Pipeline;
+import org.bson.types.ObjectId;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Pipeline queries specific to the Teamcity collector
+ */
+public interface TeamcityPipelineRepository extends CrudRepository<Pipeline, ObjectId>, TeamcityPipelineRepositoryCustom {
+}
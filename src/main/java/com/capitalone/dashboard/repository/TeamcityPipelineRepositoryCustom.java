@@ -0,0 +1,58 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Pipeline;
+import com.capitalone.dashboard.model.PipelineCommit;
+import org.bson.types.ObjectId;
+
+import java.util.Collection;
+
+/**
+ * Partial pipeline updates for the Teamcity collector
+ */
+public interface TeamcityPipelineRepositoryCustom {
+
+    /**
+     * Finds the pipeline of a product collector item. Only the commits of its Commit and Build
+     * stages are read, along with the version token later updates are made conditional on. A
+     * pipeline without a token is given one first.
+     *
+     * @param collectorItemId the id of the product collector item of the pipeline
+     * @return the stages read, or null if there is no pipeline
+     */
+    CommitStages findCommitStages(ObjectId collectorItemId);
+
+    /**
+     * Replaces the commits of the Build stage of a pipeline, leaving the rest of the document untouched,
+     * if its version token is still the one read. The update gives the pipeline a new token.
+     *
+     * @param read    the stages the commits were merged from
+     * @param commits the build stage commits in the order to store them
+     * @return false if the pipeline was written since, or read without a token, nothing is updated then
+     */
+    boolean updateBuildStageCommits(CommitStages read, Collection<PipelineCommit> commits);
+
+    /**
+     * The Commit and Build stages of a pipeline as read, with the version token of the stored document.
+     */
+    final class CommitStages {
+        private final Pipeline pipeline;
+        private final ObjectId version;
+
+        /**
+         * @param pipeline the pipeline with the commits of its Commit and Build stages
+         * @param version  the version token of the stored pipeline, or null if it has none
+         */
+        public CommitStages(Pipeline pipeline, ObjectId version) {
+            this.pipeline = pipeline;
+            this.version = version;
+        }
+
+        public Pipeline getPipeline() {
+            return pipeline;
+        }
+
+        ObjectId getVersion() {
+            return version;
+        }
+    }
+}
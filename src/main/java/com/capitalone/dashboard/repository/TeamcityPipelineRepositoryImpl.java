@@ -0,0 +1,72 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Pipeline;
+import com.capitalone.dashboard.model.PipelineCommit;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.Collection;
+
+/**
+ * Implements the partial updates of {@link TeamcityPipelineRepository}.
+ */
+public class TeamcityPipelineRepositoryImpl implements TeamcityPipelineRepositoryCustom {
+
+    // environmentStageMap is stored as stages
+    private static final String COMMIT_STAGE_COMMITS = "stages.Commit.commits";
+    private static final String BUILD_STAGE_COMMITS = "stages.Build.commits";
+    // replaced by every update of the build stage, and dropped by whole-document saves of the pipeline
+    private static final String VERSION = "buildStageVersion";
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public TeamcityPipelineRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public CommitStages findCommitStages(ObjectId collectorItemId) {
+        DBObject query = new BasicDBObject("collectorItemId", collectorItemId);
+        DBObject fields = new BasicDBObject("collectorItemId", 1).append(COMMIT_STAGE_COMMITS, 1)
+                .append(BUILD_STAGE_COMMITS, 1).append(VERSION, 1);
+        DBObject stored = mongoOperations.execute(Pipeline.class, collection -> {
+            DBObject document = collection.findOne(query, fields);
+            if (document == null || document.get(VERSION) != null) {
+                return document;
+            }
+            // a token given after the last whole-document save, so any later one is noticed
+            collection.update(new BasicDBObject("_id", document.get("_id")).append(VERSION, new BasicDBObject("$exists", false)),
+                    new BasicDBObject("$set", new BasicDBObject(VERSION, ObjectId.get())));
+            return collection.findOne(query, fields);
+        });
+        return stored == null ? null : new CommitStages(mongoOperations.getConverter().read(Pipeline.class, stored),
+                (ObjectId) stored.get(VERSION));
+    }
+
+    @Override
+    public boolean updateBuildStageCommits(CommitStages read, Collection<PipelineCommit> commits) {
+        if (read.getVersion() == null) {
+            // saved again between giving it a token and reading it
+            return false;
+        }
+        BasicDBList documents = new BasicDBList();
+        for (PipelineCommit commit : commits) {
+            DBObject document = new BasicDBObject();
+            mongoOperations.getConverter().write(commit, document);
+            // stage commits are stored without a type hint, as when the whole pipeline is saved
+            document.removeField("_class");
+            documents.add(document);
+        }
+        // any write since the read changed or dropped the token. Other stages are left to their owners
+        DBObject query = new BasicDBObject("_id", read.getPipeline().getId()).append(VERSION, read.getVersion());
+        DBObject update = new BasicDBObject("$set", new BasicDBObject(BUILD_STAGE_COMMITS, documents).append(VERSION, ObjectId.get()));
+        WriteResult result = mongoOperations.execute(Pipeline.class, collection -> collection.update(query, update));
+        return result.getN() > 0;
+    }
+}
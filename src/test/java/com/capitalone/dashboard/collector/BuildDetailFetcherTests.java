@@ -0,0 +1,98 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BuildDetailFetcherTests {
+
+    private static final String SLOW_SERVER = "http://slow.company.com";
+    private static final String SERVER = "http://teamcity.company.com";
+
+    @Mock private TeamcityClient teamcityClient;
+    @Mock private AsyncTeamcityClient asyncTeamcityClient;
+    private final CountDownLatch slowServerAnswers = new CountDownLatch(1);
+    private BuildDetailFetcher fetcher;
+
+    @Before
+    public void init() {
+        TeamcitySettings settings = new TeamcitySettings();
+        settings.setDetailFetchMode(TeamcitySettings.DetailFetchMode.VIRTUAL_THREADS);
+        settings.setMaxConnections(3);
+        settings.setMaxRequestsPerServer(2);
+        fetcher = new BuildDetailFetcher(teamcityClient, asyncTeamcityClient, settings);
+        when(teamcityClient.getBuildDetails(anyString(), eq(SLOW_SERVER))).thenAnswer(invocation -> {
+            slowServerAnswers.await();
+            return build((String) invocation.getArguments()[0]);
+        });
+        when(teamcityClient.getBuildDetails(anyString(), eq(SERVER))).thenAnswer(invocation -> build((String) invocation.getArguments()[0]));
+    }
+
+    @After
+    public void destroy() {
+        slowServerAnswers.countDown();
+        fetcher.destroy();
+    }
+
+    @Test
+    public void slowServerDoesNotHoldTheThreadsOfTheOthers() throws Exception {
+        CompletableFuture.runAsync(() -> fetcher.fetch(job(SLOW_SERVER), builds(SLOW_SERVER, 5)));
+
+        Map<String, CompletableFuture<Build>> details = fetcher.fetch(job(SERVER), builds(SERVER, 1));
+
+        assertEquals("1", details.get("1").get(5, TimeUnit.SECONDS).getNumber());
+    }
+
+    @Test
+    public void slowServerGetsItsDetailsOnceItAnswers() throws Exception {
+        CompletableFuture<Map<String, CompletableFuture<Build>>> details =
+                CompletableFuture.supplyAsync(() -> fetcher.fetch(job(SLOW_SERVER), builds(SLOW_SERVER, 5)));
+
+        slowServerAnswers.countDown();
+
+        for (int number = 1; number <= 5; number++) {
+            assertEquals(String.valueOf(number), details.get(5, TimeUnit.SECONDS).get(String.valueOf(number))
+                    .get(5, TimeUnit.SECONDS).getNumber());
+        }
+    }
+
+    private static TeamcityProject job(String server) {
+        TeamcityProject job = new TeamcityProject();
+        job.setInstanceUrl(server);
+        return job;
+    }
+
+    private static List<Build> builds(String server, int count) {
+        List<Build> builds = new ArrayList<>();
+        for (int number = 1; number <= count; number++) {
+            builds.add(build(server + "/app/rest/builds?locator=id:" + number));
+        }
+        return Collections.unmodifiableList(builds);
+    }
+
+    private static Build build(String buildUrl) {
+        Build build = new Build();
+        build.setNumber(buildUrl.substring(buildUrl.indexOf("id:") + 3));
+        build.setBuildUrl(buildUrl);
+        return build;
+    }
+}
@@ -0,0 +1,146 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.repository.TeamcityBuildRepository;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BuildWriterTests {
+
+    private static final ObjectId JOB = new ObjectId();
+    private static final ObjectId OTHER_JOB = new ObjectId();
+    private static final long NO_FLUSH_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    @Mock private TeamcityBuildRepository teamcityBuildRepository;
+    // the numbers of each batch written, the writer reuses its batches
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void buildsAreWrittenInBatchesInTheOrderTheyWereQueued() {
+        recordBatches();
+        BuildWriter writer = new BuildWriter(teamcityBuildRepository, 10, 2, NO_FLUSH_INTERVAL);
+
+        for (int number = 1; number <= 5; number++) {
+            writer.write(build(JOB, number));
+        }
+
+        assertTrue(writer.drain().isEmpty());
+        assertEquals(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3", "4"), Collections.singletonList("5")), batches);
+    }
+
+    @Test
+    public void partialBatchIsWrittenOnceTheFlushIntervalHasPassed() {
+        recordBatches();
+        BuildWriter writer = new BuildWriter(teamcityBuildRepository, 10, 100, 50);
+
+        writer.write(build(JOB, 1));
+
+        verify(teamcityBuildRepository, timeout(5000)).upsertBuilds(anyListOf(Build.class));
+        assertEquals(Collections.singletonList(Collections.singletonList("1")), batches);
+        assertTrue(writer.drain().isEmpty());
+    }
+
+    @Test
+    public void fullQueueBlocksTheProducerUntilTheWriterCatchesUp() throws Exception {
+        CountDownLatch databaseAnswers = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            databaseAnswers.await();
+            return record(invocation.getArguments()[0]);
+        }).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+        BuildWriter writer = new BuildWriter(teamcityBuildRepository, 1, 1, NO_FLUSH_INTERVAL);
+
+        // the writer holds the first build and the queue the second, which leaves no room for the third
+        writer.write(build(JOB, 1));
+        writer.write(build(JOB, 2));
+        CompletableFuture<Void> third = CompletableFuture.runAsync(() -> writer.write(build(JOB, 3)));
+        Thread.sleep(200);
+        assertFalse(third.isDone());
+
+        databaseAnswers.countDown();
+        third.get(5, TimeUnit.SECONDS);
+
+        assertTrue(writer.drain().isEmpty());
+        assertEquals(Arrays.asList("1", "2", "3"), batches.stream().flatMap(List::stream).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void jobsOfFailedBatchesAreReportedAndTheWriterGoesOn() {
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<Build> batch = (List<Build>) invocation.getArguments()[0];
+            if (batch.get(0).getCollectorItemId().equals(JOB)) {
+                throw new IllegalStateException("write failed");
+            }
+            return record(batch);
+        }).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+        BuildWriter writer = new BuildWriter(teamcityBuildRepository, 10, 1, NO_FLUSH_INTERVAL);
+
+        writer.write(build(JOB, 1));
+        writer.write(build(OTHER_JOB, 2));
+
+        assertEquals(Collections.singleton(JOB), writer.drain());
+        assertEquals(Collections.singletonList(Collections.singletonList("2")), batches);
+    }
+
+    @Test
+    public void buildsADeadWriterCanNoLongerWriteAreReported() {
+        ObjectId thirdJob = new ObjectId();
+        doAnswer(invocation -> {
+            throw new IllegalStateException("write failed");
+        }).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+        // the writer dies while reporting the failed build, before its job is known
+        Build first = mock(Build.class);
+        when(first.getCollectorItemId()).thenThrow(new OutOfMemoryError("no heap left")).thenReturn(JOB);
+        BuildWriter writer = new BuildWriter(teamcityBuildRepository, 1, 1, NO_FLUSH_INTERVAL);
+
+        writer.write(first);
+        // queued behind the first build, which the writer never returns for
+        writer.write(build(OTHER_JOB, 2));
+        // finds the queue full and the writer dead
+        writer.write(build(thirdJob, 3));
+
+        assertEquals(new HashSet<>(Arrays.asList(JOB, OTHER_JOB, thirdJob)), writer.drain());
+    }
+
+    private void recordBatches() {
+        doAnswer(invocation -> record(invocation.getArguments()[0])).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+    }
+
+    private Object record(Object batch) {
+        @SuppressWarnings("unchecked")
+        List<Build> builds = (List<Build>) batch;
+        batches.add(builds.stream().map(Build::getNumber).collect(Collectors.toList()));
+        return null;
+    }
+
+    private static Build build(ObjectId jobId, int number) {
+        Build build = new Build();
+        build.setCollectorItemId(jobId);
+        build.setNumber(String.valueOf(number));
+        return build;
+    }
+}
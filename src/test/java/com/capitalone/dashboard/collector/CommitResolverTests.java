@@ -0,0 +1,139 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.QCommit;
+import com.capitalone.dashboard.model.SCM;
+import com.capitalone.dashboard.repository.CommitRepository;
+import com.mysema.query.types.Constant;
+import com.mysema.query.types.Operation;
+import com.mysema.query.types.Predicate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CommitResolverTests {
+
+    @Mock private CommitRepository commitRepository;
+    private TeamcitySettings settings;
+    private final Map<String, Commit> storedCommits = new HashMap<>();
+
+    @Before
+    public void init() {
+        settings = new TeamcitySettings();
+        // answers the lookup by revision numbers with the stored commits among them, a single one is looked up with eq
+        when(commitRepository.findAll(any(Predicate.class))).thenAnswer(invocation -> {
+            Object revisions = ((Constant<?>) ((Operation<?>) invocation.getArguments()[0]).getArg(1)).getConstant();
+            List<Commit> commits = new ArrayList<>();
+            for (Object sha : revisions instanceof Collection ? (Collection<?>) revisions : Collections.singleton(revisions)) {
+                if (storedCommits.containsKey(sha)) {
+                    commits.add(storedCommits.get(sha));
+                }
+            }
+            return commits;
+        });
+        store("a1", "b2", "c3");
+    }
+
+    @Test
+    public void revisionsOfABatchAreResolvedWithOneQuery() {
+        CommitResolver resolver = new CommitResolver(commitRepository, settings);
+        Build build = build("a1");
+        Build sameCommit = build("a1");
+        Build unknownCommit = build("ff");
+
+        resolver.resolve(Arrays.asList(build, sameCommit, unknownCommit));
+
+        verify(commitRepository).findAll(QCommit.commit.scmRevisionNumber.in(new LinkedHashSet<>(Arrays.asList("a1", "ff"))));
+        assertSame(storedCommits.get("a1"), build.getSourceChangeSet().get(0));
+        assertSame(storedCommits.get("a1"), sameCommit.getSourceChangeSet().get(0));
+        assertTrue(unknownCommit.getSourceChangeSet().isEmpty());
+        assertEquals(0, resolver.getHits());
+        assertEquals(2, resolver.getMisses());
+    }
+
+    @Test
+    public void resolvedCommitsAreReadFromTheCache() {
+        CommitResolver resolver = new CommitResolver(commitRepository, settings);
+
+        resolver.resolve(Collections.singletonList(build("a1")));
+        Build build = build("a1");
+        resolver.resolve(Collections.singletonList(build));
+
+        verify(commitRepository).findAll(any(Predicate.class));
+        assertSame(storedCommits.get("a1"), build.getSourceChangeSet().get(0));
+        assertEquals(1, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedCommitIsEvicted() {
+        settings.setCommitCacheSize(2);
+        CommitResolver resolver = new CommitResolver(commitRepository, settings);
+
+        resolver.resolve(Arrays.asList(build("a1"), build("b2")));
+        resolver.resolve(Collections.singletonList(build("a1")));
+        resolver.resolve(Collections.singletonList(build("c3")));
+        resolver.resolve(Collections.singletonList(build("a1")));
+        resolver.resolve(Collections.singletonList(build("b2")));
+
+        verify(commitRepository).findAll(QCommit.commit.scmRevisionNumber.in(Collections.singleton("c3")));
+        verify(commitRepository).findAll(QCommit.commit.scmRevisionNumber.in(Collections.singleton("b2")));
+        verify(commitRepository, times(3)).findAll(any(Predicate.class));
+        assertEquals(2, resolver.getHits());
+        assertEquals(4, resolver.getMisses());
+    }
+
+    @Test
+    public void clearEmptiesTheCacheAndTheCounts() {
+        CommitResolver resolver = new CommitResolver(commitRepository, settings);
+        resolver.resolve(Collections.singletonList(build("a1")));
+        resolver.resolve(Collections.singletonList(build("a1")));
+
+        resolver.clear();
+
+        assertEquals(0, resolver.getHits());
+        assertEquals(0, resolver.getMisses());
+        resolver.resolve(Collections.singletonList(build("a1")));
+        verify(commitRepository, times(2)).findAll(any(Predicate.class));
+        assertEquals(0, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    private void store(String... shas) {
+        for (String sha : shas) {
+            Commit commit = new Commit();
+            commit.setScmRevisionNumber(sha);
+            storedCommits.put(sha, commit);
+        }
+    }
+
+    // a fetched build, whose change set only holds the revision it was built from
+    private static Build build(String sha) {
+        SCM revision = new SCM();
+        revision.setScmRevisionNumber(sha);
+        Build build = new Build();
+        build.setSourceChangeSet(new ArrayList<>(Collections.singletonList(revision)));
+        return build;
+    }
+}
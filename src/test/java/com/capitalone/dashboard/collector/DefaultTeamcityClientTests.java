@@ -0,0 +1,257 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.BaseModel;
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.BuildStatus;
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.capitalone.dashboard.util.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestOperations;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultTeamcityClientTests {
+
+    private static final String INSTANCE_URL = "http://teamcity.company.com";
+    private static final String PROJECT = "{\"id\":\"Root\",\"buildTypes\":{\"buildType\":[{\"id\":\"Root_Build\",\"webUrl\":\"http://teamcity.company.com/viewType.html?buildTypeId=Root_Build\"}]}}";
+    private static final String BUILD_TYPES = "{\"buildType\":[{\"id\":\"Root_Build\"}]}";
+    private static final String BUILDS = "{\"count\":1,\"build\":[{\"id\":42,\"status\":\"SUCCESS\",\"state\":\"finished\"}]}";
+    private static final String BUILD = "{\"id\":42,\"status\":\"SUCCESS\",\"state\":\"finished\",\"startDate\":\"20200101T100000+0000\",\"finishDate\":\"20200101T100500+0000\",\"revisions\":{\"count\":1,\"revision\":[{\"version\":\"abc123\",\"vcs-root-instance\":{\"id\":\"1\"}}]}}";
+
+    private static final String BUILD_TYPE_URL = "http://teamcity.company.com/viewType.html?buildTypeId=Root_Build";
+
+    @Mock private Supplier<RestOperations> restOperationsSupplier;
+    @Mock private RestOperations rest;
+    private TeamcitySettings settings;
+    private DefaultTeamcityClient client;
+    // the build list pages of Root_Build, by start / 100
+    private final List<String> buildPages = new ArrayList<>(Collections.singletonList(BUILDS));
+
+    @Before
+    public void init() {
+        when(restOperationsSupplier.get()).thenReturn(rest);
+        when(rest.exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class))).thenAnswer(invocation ->
+                new ResponseEntity<>(respond((String) invocation.getArguments()[0]), HttpStatus.OK));
+        when(rest.execute(anyString(), eq(HttpMethod.GET), any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any())).thenAnswer(invocation -> {
+            ClientHttpResponse response = mock(ClientHttpResponse.class);
+            when(response.getBody()).thenReturn(new ByteArrayInputStream(
+                    respond((String) invocation.getArguments()[0]).getBytes(StandardCharsets.UTF_8)));
+            return ((ResponseExtractor<?>) invocation.getArguments()[3]).extractData(response);
+        });
+        settings = new TeamcitySettings();
+        settings.setProjectIds("Root");
+        settings.setBranchesToMonitor("master");
+        client = new DefaultTeamcityClient(restOperationsSupplier, settings);
+    }
+
+    @Test
+    public void buildListRequestIsProjected() {
+        client.getInstanceProjects(INSTANCE_URL);
+
+        assertTrue(requestedUrls().contains(INSTANCE_URL
+                + "/app/rest/builds/?locator=buildType:Root_Build,branch:master,running:any,count:100,start:0&fields=count,build(id,status,state)"));
+    }
+
+    @Test
+    public void buildListRequestWithoutFields() {
+        settings.setBuildListFields("");
+
+        client.getInstanceProjects(INSTANCE_URL);
+
+        assertTrue(requestedUrls().contains(INSTANCE_URL
+                + "/app/rest/builds/?locator=buildType:Root_Build,branch:master,running:any,count:100,start:0"));
+    }
+
+    @Test
+    public void buildsAfterTheLastCollectedBuildAreListed() {
+        client.getInstanceProjects(INSTANCE_URL, Collections.singletonMap(job(), 41L));
+
+        assertEquals(Collections.singletonList(INSTANCE_URL
+                        + "/app/rest/builds/?locator=buildType:Root_Build,branch:master,running:any,sinceBuild:(id:41),count:100,start:0"
+                        + "&fields=count,build(id,status,state)"),
+                buildListUrls());
+    }
+
+    @Test
+    public void firstRunListsTheWholeHistory() {
+        buildPages.set(0, page(200, 100));
+        buildPages.add(page(100, 30));
+
+        Set<BaseModel> builds = builds(client.getInstanceProjects(INSTANCE_URL));
+
+        assertEquals(130, builds.size());
+        List<String> urls = buildListUrls();
+        assertEquals(2, urls.size());
+        assertTrue(urls.get(0).contains(",count:100,start:0"));
+        assertTrue(urls.get(1).contains(",count:100,start:100"));
+        assertFalse(urls.get(0).contains("sinceBuild"));
+    }
+
+    @Test
+    public void shortPageIsTheLastOne() {
+        buildPages.set(0, page(100, 99));
+        buildPages.add(page(1, 99));
+
+        Set<BaseModel> builds = builds(client.getInstanceProjects(INSTANCE_URL));
+
+        assertEquals(99, builds.size());
+        assertEquals(1, buildListUrls().size());
+    }
+
+    @Test
+    public void runningBuildsAreListedInProgress() {
+        buildPages.set(0, "{\"count\":2,\"build\":[{\"id\":43,\"state\":\"running\"},{\"id\":42,\"status\":\"SUCCESS\",\"state\":\"finished\"}]}");
+
+        List<BuildStatus> statuses = builds(client.getInstanceProjects(INSTANCE_URL)).stream()
+                .map(build -> ((Build) build).getBuildStatus()).collect(Collectors.toList());
+
+        assertEquals(Arrays.asList(BuildStatus.InProgress, BuildStatus.Success), statuses);
+    }
+
+    @Test
+    public void buildsOfJobsNotToBeListedAreNotRequested() {
+        Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> jobs =
+                client.getInstanceProjects(INSTANCE_URL, Collections.emptyMap(), job -> false);
+
+        assertTrue(builds(jobs).isEmpty());
+        assertTrue(buildListUrls().isEmpty());
+    }
+
+    @Test(expected = RestClientException.class)
+    public void interruptedProjectWalkFailsTheServer() {
+        Thread.currentThread().interrupt();
+        try {
+            client.getInstanceProjects(INSTANCE_URL);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void failedProjectWalkFailsTheServer() {
+        when(rest.exchange(contains("app/rest/projects"), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new StackOverflowError());
+
+        try {
+            client.getInstanceProjects(INSTANCE_URL);
+            fail("a partial project tree was returned");
+        } catch (RestClientException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+    }
+
+    @Test
+    public void buildDetailRequestIsProjected() {
+        Build build = client.getBuildDetails(INSTANCE_URL + "/app/rest/builds?locator=id:42", INSTANCE_URL);
+
+        assertEquals("42", build.getNumber());
+        assertEquals(INSTANCE_URL + "/app/rest/builds/id:42?fields=id,status,state,startDate,finishDate,revisions(revision(version))",
+                requestedUrls().get(0));
+    }
+
+    @Test
+    public void buildDetailRequestWithoutFields() {
+        settings.setBuildDetailFields("");
+
+        client.getBuildDetails(INSTANCE_URL + "/app/rest/builds?locator=id:42", INSTANCE_URL);
+
+        assertEquals(INSTANCE_URL + "/app/rest/builds/id:42", requestedUrls().get(0));
+    }
+
+    @Test
+    public void buildDetailIsStreamed() {
+        Build build = client.getBuildDetails(INSTANCE_URL + "/app/rest/builds?locator=id:42", INSTANCE_URL);
+
+        assertEquals(BuildStatus.Success, build.getBuildStatus());
+        assertEquals(1577872800000L, build.getStartTime());
+        assertEquals(300000L, build.getDuration());
+        assertEquals("abc123", build.getSourceChangeSet().get(0).getScmRevisionNumber());
+    }
+
+    private String respond(String url) {
+        if (url.contains("app/rest/projects")) {
+            return PROJECT;
+        } else if (url.contains("app/rest/buildTypes")) {
+            return BUILD_TYPES;
+        } else if (url.contains("locator=buildType")) {
+            int page = Integer.parseInt(url.replaceAll(".*,start:(\\d+).*", "$1")) / 100;
+            return page < buildPages.size() ? buildPages.get(page) : page(0, 0);
+        }
+        return BUILD;
+    }
+
+    // a build list page of count finished builds, newest first from the given id
+    private static String page(int newestId, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> "{\"id\":" + (newestId - i) + ",\"status\":\"SUCCESS\",\"state\":\"finished\"}")
+                .collect(Collectors.joining(",", "{\"count\":" + count + ",\"build\":[", "]}"));
+    }
+
+    private static TeamcityProject job() {
+        TeamcityProject job = new TeamcityProject();
+        job.setJobName("Root_Build");
+        job.setJobUrl(BUILD_TYPE_URL);
+        return job;
+    }
+
+    private static Set<BaseModel> builds(Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> jobs) {
+        return jobs.get(job()).get(TeamcityClient.jobData.BUILD);
+    }
+
+    private List<String> buildListUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String url : requestedUrls(0)) {
+            if (url.contains("locator=buildType")) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    private List<String> requestedUrls() {
+        return requestedUrls(1);
+    }
+
+    private List<String> requestedUrls(int atLeast) {
+        ArgumentCaptor<String> urls = ArgumentCaptor.forClass(String.class);
+        verify(rest, atLeast(atLeast)).execute(urls.capture(), eq(HttpMethod.GET), any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        return urls.getAllValues();
+    }
+}
@@ -0,0 +1,95 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JobIndexTests {
+
+    private static final String SERVER = "http://teamcity.company.com";
+    private static final String OTHER_SERVER = "http://teamcity2.company.com";
+
+    @Test
+    public void fetchedJobsAreSortedIntoNewAndStoredJobs() {
+        TeamcityProject stored = job(SERVER, "Root_Build");
+        JobIndex index = new JobIndex(Collections.singletonList(stored));
+        TeamcityProject fetched = job(SERVER, "Root_Build");
+        TeamcityProject fetchedNew = job(SERVER, "Root_Test");
+
+        JobIndex.Reconciliation reconciliation = index.reconcile(Arrays.asList(fetched, fetchedNew), SERVER);
+
+        assertEquals(Collections.singletonList(fetchedNew), reconciliation.getInserts());
+        assertEquals(Collections.singletonMap(fetched, stored), reconciliation.getUpdates());
+        assertTrue(reconciliation.getDeletes().isEmpty());
+    }
+
+    @Test
+    public void jobStoredWithoutInstanceUrlIsFoundByJobUrlAndName() {
+        TeamcityProject legacy = job(null, "Root_Build");
+        TeamcityProject legacyEmpty = job("", "Root_Test");
+        JobIndex index = new JobIndex(Arrays.asList(legacy, legacyEmpty));
+        TeamcityProject fetched = job(SERVER, "Root_Build");
+        TeamcityProject fetchedEmpty = job(SERVER, "Root_Test");
+
+        JobIndex.Reconciliation reconciliation = index.reconcile(Arrays.asList(fetched, fetchedEmpty), SERVER);
+
+        assertTrue(reconciliation.getInserts().isEmpty());
+        assertSame(legacy, reconciliation.getUpdates().get(fetched));
+        assertSame(legacyEmpty, reconciliation.getUpdates().get(fetchedEmpty));
+    }
+
+    @Test
+    public void jobStoredWithItsInstanceUrlWinsOverALegacyOne() {
+        TeamcityProject legacy = job(null, "Root_Build");
+        TeamcityProject stored = job(SERVER, "Root_Build");
+        JobIndex index = new JobIndex(Arrays.asList(legacy, stored));
+
+        assertSame(stored, index.find(job(SERVER, "Root_Build")));
+        assertNull(index.find(job(SERVER, "Root_Test")));
+    }
+
+    @Test
+    public void onlyTheJobsOfTheReconciledServerAreDeleted() {
+        TeamcityProject removed = job(SERVER, "Root_Removed");
+        TeamcityProject kept = job(SERVER, "Root_Build");
+        TeamcityProject otherServerJob = job(OTHER_SERVER, "Root_Other");
+        TeamcityProject legacy = job(null, "Root_Legacy");
+        JobIndex index = new JobIndex(Arrays.asList(removed, kept, otherServerJob, legacy));
+
+        JobIndex.Reconciliation reconciliation = index.reconcile(Collections.singletonList(job(SERVER, "Root_Build")), SERVER);
+        JobIndex.Reconciliation otherReconciliation = index.reconcile(Collections.emptyList(), OTHER_SERVER);
+
+        assertEquals(Collections.singletonList(removed), reconciliation.getDeletes());
+        assertEquals(Collections.singletonList(otherServerJob), otherReconciliation.getDeletes());
+    }
+
+    @Test
+    public void sameJobOnTwoServersIsTwoJobs() {
+        TeamcityProject stored = job(SERVER, "Root_Build");
+        TeamcityProject otherServerJob = job(OTHER_SERVER, "Root_Build");
+        otherServerJob.setJobUrl(stored.getJobUrl());
+        JobIndex index = new JobIndex(Arrays.asList(stored, otherServerJob));
+        TeamcityProject fetched = job(OTHER_SERVER, "Root_Build");
+        fetched.setJobUrl(stored.getJobUrl());
+
+        JobIndex.Reconciliation reconciliation = index.reconcile(Collections.singletonList(fetched), OTHER_SERVER);
+
+        assertSame(otherServerJob, reconciliation.getUpdates().get(fetched));
+        assertTrue(reconciliation.getDeletes().isEmpty());
+    }
+
+    private static TeamcityProject job(String server, String name) {
+        TeamcityProject job = new TeamcityProject();
+        job.setInstanceUrl(server);
+        job.setJobName(name);
+        job.setJobUrl("http://teamcity.company.com/viewType.html?buildTypeId=" + name);
+        return job;
+    }
+}
@@ -0,0 +1,100 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobPollSchedulerTests {
+
+    private static final long MIN = 1000;
+    private static final long MAX = 6000;
+
+    private JobPollScheduler scheduler;
+    private final TeamcityProject job = job("Root_Build");
+
+    @Before
+    public void init() {
+        TeamcitySettings settings = new TeamcitySettings();
+        settings.setMinPollInterval(MIN);
+        settings.setMaxPollInterval(MAX);
+        scheduler = new JobPollScheduler(settings);
+    }
+
+    @Test
+    public void jobNeverPolledIsDue() {
+        assertTrue(scheduler.due(0).test(job));
+    }
+
+    @Test
+    public void jobWithNewBuildsIsDueAfterTheMinimumInterval() {
+        scheduler.due(0);
+        scheduler.record(job, true, 0);
+
+        assertFalse(scheduler.due(MIN - 1).test(job));
+        assertTrue(scheduler.due(MIN).test(job));
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void idleJobBacksOffUpToTheMaximumInterval() {
+        long now = 0;
+        for (long interval : new long[]{MIN, 2 * MIN, 4 * MIN, MAX, MAX}) {
+            scheduler.record(job, false, now);
+            assertFalse(scheduler.due(now + interval - 1).test(job));
+            assertTrue(scheduler.due(now + interval).test(job));
+            now += interval;
+        }
+    }
+
+    @Test
+    public void newBuildsResetTheBackOff() {
+        scheduler.record(job, false, 0);
+        scheduler.due(MIN);
+        scheduler.record(job, false, MIN);
+        scheduler.due(3 * MIN);
+
+        scheduler.record(job, true, 3 * MIN);
+
+        assertTrue(scheduler.due(4 * MIN).test(job));
+    }
+
+    @Test
+    public void queuedJobIsNotQueuedAgain() {
+        scheduler.record(job, false, 0);
+        scheduler.due(MIN);
+        scheduler.record(job, false, MIN);
+
+        // not polled, so its back-off stands
+        scheduler.record(job, true, MIN);
+
+        assertEquals(1, scheduler.getQueued());
+        assertFalse(scheduler.due(2 * MIN).test(job));
+        assertTrue(scheduler.due(3 * MIN).test(job));
+    }
+
+    @Test
+    public void forgottenJobIsDueAgain() {
+        TeamcityProject otherJob = job("Root_Test");
+        scheduler.record(job, false, 0);
+        scheduler.record(otherJob, false, 0);
+
+        scheduler.forget(Collections.singletonList(job));
+
+        assertEquals(1, scheduler.getQueued());
+        assertTrue(scheduler.due(0).test(job));
+        assertFalse(scheduler.due(0).test(otherJob));
+    }
+
+    private static TeamcityProject job(String name) {
+        TeamcityProject job = new TeamcityProject();
+        job.setJobName(name);
+        job.setJobUrl("http://teamcity.company.com/viewType.html?buildTypeId=" + name);
+        return job;
+    }
+}
@@ -0,0 +1,116 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.capitalone.dashboard.repository.TeamcityJobRepository;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobUnitOfWorkTests {
+
+    @Mock private TeamcityJobRepository teamcityJobRepository;
+    @Captor private ArgumentCaptor<Map<String, Object>> fields;
+    private JobUnitOfWork jobUpdates;
+
+    @Before
+    public void init() {
+        jobUpdates = new JobUnitOfWork(teamcityJobRepository);
+    }
+
+    @Test
+    public void changesOfAJobAreWrittenInOneUpdate() {
+        TeamcityProject job = job();
+
+        jobUpdates.setNiceName(job, "build");
+        jobUpdates.setLastUpdated(job, 1L);
+        jobUpdates.setLastBuildId(job, 41L);
+        jobUpdates.setLastUpdated(job, 2L);
+        jobUpdates.setLastBuildId(job, 42L);
+        jobUpdates.flush();
+
+        verify(teamcityJobRepository).updateFields(eq(job.getId()), fields.capture());
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("niceName", "build");
+        expected.put("lastUpdated", 2L);
+        expected.put("lastBuildId", 42L);
+        assertEquals(expected, fields.getValue());
+        assertEquals(Long.valueOf(42), job.getLastBuildId());
+    }
+
+    @Test
+    public void eachChangedJobIsWrittenOnce() {
+        TeamcityProject job = job();
+        TeamcityProject otherJob = job();
+        TeamcityProject unchangedJob = job();
+
+        jobUpdates.setEnvironment(job, "QA");
+        jobUpdates.setInstanceUrl(otherJob, "http://teamcity.company.com");
+        jobUpdates.setEnvironment(job, "PROD");
+        jobUpdates.flush();
+        jobUpdates.flush(unchangedJob);
+
+        verify(teamcityJobRepository).updateFields(job.getId(), singleField("environment", "PROD"));
+        verify(teamcityJobRepository).updateFields(otherJob.getId(), singleField("options.instanceUrl", "http://teamcity.company.com"));
+        verify(teamcityJobRepository, never()).updateFields(eq(unchangedJob.getId()), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void jobFlushedOnItsOwnIsNotWrittenAgain() {
+        TeamcityProject job = job();
+        TeamcityProject otherJob = job();
+
+        jobUpdates.setLastBuildId(job, 42L);
+        jobUpdates.setLastBuildId(otherJob, 7L);
+        jobUpdates.flush(job);
+        verify(teamcityJobRepository).updateFields(job.getId(), singleField("lastBuildId", 42L));
+        verify(teamcityJobRepository, never()).updateFields(eq(otherJob.getId()), anyMapOf(String.class, Object.class));
+
+        jobUpdates.flush();
+        jobUpdates.flush();
+
+        verify(teamcityJobRepository).updateFields(otherJob.getId(), singleField("lastBuildId", 7L));
+        verifyNoMoreInteractions(teamcityJobRepository);
+    }
+
+    @Test
+    public void flushStartsOver() {
+        TeamcityProject job = job();
+
+        jobUpdates.setLastUpdated(job, 1L);
+        jobUpdates.flush();
+        jobUpdates.setLastBuildId(job, 42L);
+        jobUpdates.flush();
+
+        verify(teamcityJobRepository).updateFields(job.getId(), singleField("lastUpdated", 1L));
+        verify(teamcityJobRepository).updateFields(job.getId(), singleField("lastBuildId", 42L));
+        verifyNoMoreInteractions(teamcityJobRepository);
+    }
+
+    private static Map<String, Object> singleField(String field, Object value) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(field, value);
+        return fields;
+    }
+
+    private static TeamcityProject job() {
+        TeamcityProject job = new TeamcityProject();
+        job.setId(new ObjectId());
+        return job;
+    }
+}
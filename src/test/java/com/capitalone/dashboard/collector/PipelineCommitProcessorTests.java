@@ -0,0 +1,243 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.EnvironmentStage;
+import com.capitalone.dashboard.model.Pipeline;
+import com.capitalone.dashboard.model.PipelineCommit;
+import com.capitalone.dashboard.repository.CollectorItemRepository;
+import com.capitalone.dashboard.repository.CollectorRepository;
+import com.capitalone.dashboard.repository.ComponentRepository;
+import com.capitalone.dashboard.repository.DashboardRepository;
+import com.capitalone.dashboard.repository.TeamcityPipelineRepository;
+import com.capitalone.dashboard.repository.TeamcityPipelineRepositoryCustom.CommitStages;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PipelineCommitProcessorTests {
+
+    private static final String PROJECT_ID = "Root";
+    private static final String DASHBOARD_ID = "dashboard";
+
+    @Mock private CollectorRepository collectorRepository;
+    @Mock private CollectorItemRepository collectorItemRepository;
+    @Mock private TeamcityPipelineRepository teamcityPipelineRepository;
+    @Mock private ComponentRepository componentRepository;
+    @Mock private DashboardRepository dashboardRepository;
+    @Mock private PipelineLookup lookup;
+    private TeamcitySettings settings;
+    private PipelineCommitProcessor processor;
+    private ObjectId productItemId;
+    private Pipeline pipeline;
+
+    @Before
+    public void init() {
+        settings = new TeamcitySettings();
+        processor = new PipelineCommitProcessor(collectorRepository, collectorItemRepository, teamcityPipelineRepository,
+                componentRepository, dashboardRepository, settings);
+        CollectorItem productItem = new CollectorItem();
+        productItemId = new ObjectId();
+        productItem.setId(productItemId);
+        when(lookup.dashboardIds(PROJECT_ID)).thenReturn(Collections.singleton(DASHBOARD_ID));
+        when(lookup.productItems(DASHBOARD_ID)).thenReturn(Collections.singletonList(productItem));
+
+        // the stored pipeline, read and written back through the repository
+        pipeline = new Pipeline();
+        pipeline.setId(new ObjectId());
+        pipeline.setCollectorItemId(productItemId);
+        when(teamcityPipelineRepository.findCommitStages(productItemId)).thenAnswer(invocation ->
+                new CommitStages(pipeline, new ObjectId()));
+        when(teamcityPipelineRepository.updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class)))
+                .thenAnswer(this::writeBuildStage);
+    }
+
+    @Test
+    public void newBuildCommitsAreMergedNewestBuildFirst() {
+        stage("Commit", commits(commit("c3", 300), commit("c2", 200), commit("c1", 100)));
+        stage("Build", commits(built("c1", 100, 1000)));
+
+        process(built("c3", 300, 2000));
+
+        assertEquals(Arrays.asList("c3@2000", "c2@2000", "c1@1000"), buildStage());
+    }
+
+    @Test
+    public void unorderedStagesAreSortedBeforeMerging() {
+        stage("Commit", commits(commit("c1", 100), commit("c3", 300), commit("c2", 200)));
+        stage("Build", commits(built("c1", 100, 1000), built("c2", 200, 1500)));
+
+        process(built("c3", 300, 2000));
+
+        assertEquals(Arrays.asList("c3@2000", "c2@1500", "c1@1000"), buildStage());
+    }
+
+    @Test
+    public void commitsNewerThanTheNewestBuildAreNotAdded() {
+        stage("Commit", commits(commit("c3", 300), commit("c2", 200), commit("c1", 100)));
+
+        process(built("c2", 200, 1000));
+
+        assertEquals(Arrays.asList("c2@1000", "c1@1000"), buildStage());
+    }
+
+    @Test
+    public void knownBuildCommitsKeepTheirBuild() {
+        stage("Commit", commits(commit("c2", 200), commit("c1", 100)));
+        stage("Build", commits(built("c2", 200, 1000), built("c1", 100, 1000)));
+
+        process(built("c2", 200, 5000));
+
+        assertEquals(Arrays.asList("c2@1000", "c1@1000"), buildStage());
+        verify(teamcityPipelineRepository, never()).updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class));
+    }
+
+    @Test
+    public void unchangedPipelineIsWrittenOnce() {
+        stage("Commit", commits(commit("c2", 200), commit("c1", 100)));
+
+        process(built("c2", 200, 1000));
+        process(built("c2", 200, 1000));
+
+        assertEquals(Arrays.asList("c2@1000", "c1@1000"), buildStage());
+        verify(teamcityPipelineRepository, times(1)).updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class));
+    }
+
+    @Test
+    public void onlyTheNewestBuildCommitsAreRetained() {
+        settings.setPipelineCommitMaxCount(2);
+        stage("Commit", commits(commit("c3", 300), commit("c2", 200), commit("c1", 100)));
+
+        process(built("c3", 300, 2000));
+        assertEquals(Arrays.asList("c3@2000", "c2@2000"), buildStage());
+
+        stage("Commit", commits(commit("c4", 400), commit("c3", 300), commit("c2", 200), commit("c1", 100)));
+        process(built("c4", 400, 3000));
+        assertEquals(Arrays.asList("c4@3000", "c3@2000"), buildStage());
+    }
+
+    @Test
+    public void commitsPastTheMaxAgeAreNotAddedBack() {
+        settings.setPipelineCommitMaxAgeDays(7);
+        long now = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+        stage("Commit", commits(commit("c4", now - day), commit("c3", now - 2 * day),
+                commit("c2", now - 11 * day), commit("c1", now - 12 * day)));
+
+        process(built("c2", now - 11 * day, now - 10 * day), built("c4", now - day, now - 1000));
+        assertEquals(Arrays.asList("c4@" + (now - 1000), "c3@" + (now - 1000)), buildStage());
+
+        stage("Commit", commits(commit("c5", now), commit("c4", now - day), commit("c3", now - 2 * day),
+                commit("c2", now - 11 * day), commit("c1", now - 12 * day)));
+        process(built("c5", now, now));
+        assertEquals(Arrays.asList("c5@" + now, "c4@" + (now - 1000), "c3@" + (now - 1000)), buildStage());
+    }
+
+    @Test
+    public void pipelineWrittenConcurrentlyIsReadAndMergedAgain() {
+        stage("Commit", commits(commit("c1", 100)));
+        doAnswer(invocation -> {
+            // saved by another collector between the read and the update
+            stage("Commit", commits(commit("c2", 200), commit("c1", 100)));
+            stage("Build", commits(built("c2", 200, 2000)));
+            return false;
+        }).doAnswer(this::writeBuildStage)
+                .when(teamcityPipelineRepository).updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class));
+
+        process(built("c1", 100, 1000));
+
+        verify(teamcityPipelineRepository, times(2)).findCommitStages(productItemId);
+        assertEquals(Arrays.asList("c2@2000", "c1@1000"), buildStage());
+    }
+
+    @Test
+    public void pipelineIsLeftAloneAfterTooManyConflicts() {
+        settings.setPipelineUpdateRetries(2);
+        stage("Commit", commits(commit("c1", 100)));
+        doReturn(false).when(teamcityPipelineRepository).updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class));
+
+        process(built("c1", 100, 1000));
+
+        verify(teamcityPipelineRepository, times(3)).updateBuildStageCommits(any(CommitStages.class), anyCollectionOf(PipelineCommit.class));
+        assertNull(pipeline.getEnvironmentStageMap().get("Build"));
+    }
+
+    @Test
+    public void failingPipelineDoesNotStopTheOthers() {
+        CollectorItem failingItem = new CollectorItem();
+        failingItem.setId(new ObjectId());
+        CollectorItem productItem = new CollectorItem();
+        productItem.setId(productItemId);
+        when(lookup.productItems(DASHBOARD_ID)).thenReturn(Arrays.asList(failingItem, productItem));
+        when(teamcityPipelineRepository.findCommitStages(failingItem.getId())).thenThrow(new IllegalStateException("unreadable"));
+        stage("Commit", commits(commit("c1", 100)));
+
+        process(built("c1", 100, 1000));
+
+        assertEquals(Collections.singletonList("c1@1000"), buildStage());
+    }
+
+    private void process(PipelineCommit... commits) {
+        PipelineCommitBatch batch = new PipelineCommitBatch(lookup);
+        batch.add(PROJECT_ID, Arrays.asList(commits));
+        processor.processPipelineCommits(batch);
+    }
+
+    private Object writeBuildStage(InvocationOnMock invocation) {
+        @SuppressWarnings("unchecked")
+        Collection<PipelineCommit> commits = (Collection<PipelineCommit>) invocation.getArguments()[1];
+        stage("Build", new ArrayList<>(commits));
+        return true;
+    }
+
+    private void stage(String name, List<PipelineCommit> commits) {
+        EnvironmentStage stage = new EnvironmentStage();
+        stage.setCommits(new LinkedHashSet<>(commits));
+        pipeline.getEnvironmentStageMap().put(name, stage);
+    }
+
+    private List<String> buildStage() {
+        return pipeline.getEnvironmentStageMap().get("Build").getCommits().stream()
+                .map(commit -> commit.getScmRevisionNumber() + "@" + commit.getTimestamp())
+                .collect(Collectors.toList());
+    }
+
+    private static List<PipelineCommit> commits(PipelineCommit... commits) {
+        return Arrays.asList(commits);
+    }
+
+    private static PipelineCommit commit(String sha, long commitTimestamp) {
+        return built(sha, commitTimestamp, 0);
+    }
+
+    private static PipelineCommit built(String sha, long commitTimestamp, long buildTimestamp) {
+        PipelineCommit commit = new PipelineCommit(buildTimestamp);
+        commit.setScmRevisionNumber(sha);
+        commit.setScmCommitTimestamp(commitTimestamp);
+        return commit;
+    }
+}
@@ -0,0 +1,363 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.BaseModel;
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.BuildStatus;
+import com.capitalone.dashboard.model.TeamcityCollector;
+import com.capitalone.dashboard.model.TeamcityProject;
+import com.capitalone.dashboard.repository.BuildRepository;
+import com.capitalone.dashboard.repository.CollItemConfigHistoryRepository;
+import com.capitalone.dashboard.repository.ConfigurationRepository;
+import com.capitalone.dashboard.repository.TeamcityBuildRepository;
+import com.capitalone.dashboard.repository.TeamcityCollectorRepository;
+import com.capitalone.dashboard.repository.TeamcityJobRepository;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TeamcityCollectorTaskTests {
+
+    private static final String SERVER = "http://teamcity.company.com";
+    private static final String OTHER_SERVER = "http://teamcity2.company.com";
+
+    @Mock private TaskScheduler taskScheduler;
+    @Mock private TeamcityCollectorRepository teamcityCollectorRepository;
+    @Mock private TeamcityJobRepository teamcityJobRepository;
+    @Mock private BuildRepository buildRepository;
+    @Mock private TeamcityBuildRepository teamcityBuildRepository;
+    @Mock private CollItemConfigHistoryRepository configRepository;
+    @Mock private TeamcityClient teamcityClient;
+    @Mock private AsyncTeamcityClient asyncTeamcityClient;
+    @Mock private CommitResolver commitResolver;
+    @Mock private ConfigurationRepository configurationRepository;
+    @Mock private PipelineCommitProcessor pipelineCommitProcessor;
+    @Mock private RestOperationsSupplier restOperationsSupplier;
+    @Mock private AsyncRestOperationsSupplier asyncRestOperationsSupplier;
+    @Mock private PipelineLookup lookup;
+    @Captor private ArgumentCaptor<Map<TeamcityProject, Long>> lastBuildIds;
+    @Captor private ArgumentCaptor<Predicate<TeamcityProject>> listed;
+    @Captor private ArgumentCaptor<Map<String, Object>> fields;
+    private TeamcitySettings settings;
+    private JobPollScheduler jobPollScheduler;
+    private TeamcityCollectorTask task;
+    private TeamcityCollector collector;
+    private final List<TeamcityProject> jobs = new ArrayList<>();
+    // the builds each job lists, newest first, and the build numbers whose details cannot be fetched
+    private final Map<TeamcityProject, List<Build>> listings = new LinkedHashMap<>();
+    private final Set<String> missingDetails = new HashSet<>();
+    // the jobs whose builds cannot be listed
+    private final Set<TeamcityProject> unlistable = new HashSet<>();
+    // the numbers of the builds written, the writer reuses its batches
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void init() {
+        settings = new TeamcitySettings();
+        jobPollScheduler = new JobPollScheduler(settings);
+        task = new TeamcityCollectorTask(taskScheduler, teamcityCollectorRepository, teamcityJobRepository, buildRepository,
+                teamcityBuildRepository, configRepository, teamcityClient,
+                new BuildDetailFetcher(teamcityClient, asyncTeamcityClient, settings), commitResolver, jobPollScheduler,
+                settings, configurationRepository, pipelineCommitProcessor, restOperationsSupplier,
+                asyncRestOperationsSupplier);
+        collector = TeamcityCollector.prototype(Collections.singletonList(SERVER), null, null);
+        collector.setId(new ObjectId());
+
+        when(pipelineCommitProcessor.newBatch(collector.getId())).thenReturn(new PipelineCommitBatch(lookup));
+        when(teamcityJobRepository.findByCollectorIdIn(anyCollectionOf(ObjectId.class))).thenReturn(jobs);
+        when(teamcityJobRepository.findIdsOnDashboards(collector.getId())).thenAnswer(invocation -> jobs.stream()
+                .filter(TeamcityProject::isEnabled).map(TeamcityProject::getId).collect(Collectors.toSet()));
+        when(teamcityJobRepository.findEnabledJobs(eq(collector.getId()), anyString())).thenAnswer(invocation -> jobs.stream()
+                .filter(job -> job.isEnabled() && job.getInstanceUrl().equals(invocation.getArguments()[1]))
+                .collect(Collectors.toList()));
+        // lists like the client does, jobs not to be listed are returned without builds
+        when(teamcityClient.getInstanceProjects(anyString(), anyMapOf(TeamcityProject.class, Long.class),
+                Matchers.<Predicate<TeamcityProject>>any())).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Predicate<TeamcityProject> listed = (Predicate<TeamcityProject>) invocation.getArguments()[2];
+            Map<TeamcityProject, Map<TeamcityClient.jobData, Set<BaseModel>>> result = new LinkedHashMap<>();
+            listings.forEach((job, builds) -> {
+                if (job.getInstanceUrl().equals(invocation.getArguments()[0])) {
+                    Map<TeamcityClient.jobData, Set<BaseModel>> jobData = new HashMap<>();
+                    if (!unlistable.contains(job)) {
+                        jobData.put(TeamcityClient.jobData.BUILD, listed.test(job) ? new LinkedHashSet<>(builds) : Collections.emptySet());
+                    }
+                    result.put(listedJob(job), jobData);
+                }
+            });
+            return result;
+        });
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<Build> builds = (List<Build>) invocation.getArguments()[0];
+            builds.forEach(build -> written.add(build.getNumber()));
+            return null;
+        }).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+        when(teamcityClient.getBuildDetails(anyString(), anyString())).thenAnswer(invocation -> {
+            String buildUrl = (String) invocation.getArguments()[0];
+            String number = buildUrl.substring(buildUrl.indexOf("id:") + 3);
+            return missingDetails.contains(number) ? null : build(number, BuildStatus.Success);
+        });
+    }
+
+    @Test
+    public void newestCollectedBuildIsTheMark() {
+        TeamcityProject job = job("Root_Build", true);
+        list(job, build("43", BuildStatus.Success), build("42", BuildStatus.Failure), build("41", BuildStatus.Success));
+
+        task.collect(collector);
+
+        assertEquals(Long.valueOf(43), job.getLastBuildId());
+        verify(teamcityJobRepository).updateFields(eq(job.getId()), fields.capture());
+        assertEquals(43L, fields.getValue().get("lastBuildId"));
+    }
+
+    @Test
+    public void buildWithoutDetailsHoldsTheMarkBack() {
+        TeamcityProject job = job("Root_Build", true);
+        list(job, build("43", BuildStatus.Success), build("42", BuildStatus.Success), build("41", BuildStatus.Success));
+        missingDetails.add("42");
+
+        task.collect(collector);
+
+        assertEquals(Long.valueOf(41), job.getLastBuildId());
+    }
+
+    @Test
+    public void runningBuildHoldsTheMarkBack() {
+        TeamcityProject job = job("Root_Build", true);
+        job.setLastBuildId(40L);
+        list(job, build("43", BuildStatus.Success), build("42", BuildStatus.InProgress), build("41", BuildStatus.Success));
+
+        task.collect(collector);
+
+        assertEquals(Long.valueOf(41), job.getLastBuildId());
+        verify(teamcityClient, never()).getBuildDetails(eq(url("42")), anyString());
+    }
+
+    @Test
+    public void buildFailingToBeWrittenHoldsTheMarkBelowTheNewBuildsOfItsJob() {
+        settings.setBuildBatchSize(1);
+        TeamcityProject job = job("Root_Build", true);
+        job.setLastBuildId(40L);
+        list(job, build("43", BuildStatus.Success), build("42", BuildStatus.Success), build("41", BuildStatus.Success));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<Build> builds = (List<Build>) invocation.getArguments()[0];
+            if (builds.get(0).getNumber().equals("42")) {
+                throw new IllegalStateException("write failed");
+            }
+            written.add(builds.get(0).getNumber());
+            return null;
+        }).when(teamcityBuildRepository).upsertBuilds(anyListOf(Build.class));
+
+        task.collect(collector);
+
+        // failures are reported per job, so all its new builds are listed again
+        assertEquals(Arrays.asList("43", "41"), written);
+        assertEquals(Long.valueOf(40), job.getLastBuildId());
+    }
+
+    @Test
+    public void markIsNotLoweredByOlderBuilds() {
+        TeamcityProject job = job("Root_Build", true);
+        job.setLastBuildId(45L);
+        list(job, build("44", BuildStatus.InProgress));
+
+        task.collect(collector);
+
+        assertEquals(Long.valueOf(45), job.getLastBuildId());
+    }
+
+    @Test
+    public void marksAreOnlyUsedToListNewBuildsOnlyWhenSet() {
+        TeamcityProject job = job("Root_Build", true);
+        job.setLastBuildId(40L);
+        list(job);
+
+        task.collect(collector);
+        settings.setListNewBuildsOnly(true);
+        task.collect(collector);
+
+        verify(teamcityClient, times(2)).getInstanceProjects(eq(SERVER), lastBuildIds.capture(),
+                Matchers.<Predicate<TeamcityProject>>any());
+        assertTrue(lastBuildIds.getAllValues().get(0).isEmpty());
+        assertEquals(Collections.singletonMap(job, 40L), lastBuildIds.getAllValues().get(1));
+    }
+
+    @Test
+    public void onlyTheBuildsOfEnabledJobsAreListed() {
+        TeamcityProject enabled = job("Root_Build", true);
+        TeamcityProject disabled = job("Root_Test", false);
+        list(enabled);
+        list(disabled);
+
+        task.collect(collector);
+
+        verify(teamcityClient).getInstanceProjects(eq(SERVER), anyMapOf(TeamcityProject.class, Long.class), listed.capture());
+        assertTrue(listed.getValue().test(listedJob(enabled)));
+        assertFalse(listed.getValue().test(listedJob(disabled)));
+    }
+
+    @Test
+    public void marksOfJobsDoneBeforeAFailureAreStillWritten() {
+        TeamcityProject job = job("Root_Build", true);
+        TeamcityProject failingJob = job("Root_Test", true);
+        list(job, build("43", BuildStatus.Success), build("42", BuildStatus.Success));
+        list(failingJob, build("7", BuildStatus.Success));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Collection<Build> builds = (Collection<Build>) invocation.getArguments()[0];
+            if (builds.stream().anyMatch(build -> build.getNumber().equals("7"))) {
+                throw new IllegalStateException("unexpected");
+            }
+            return null;
+        }).when(commitResolver).resolve(anyCollectionOf(Build.class));
+
+        task.collect(collector);
+
+        verify(teamcityJobRepository).updateFields(eq(job.getId()), fields.capture());
+        assertEquals(43L, fields.getValue().get("lastBuildId"));
+        assertTrue(fields.getValue().containsKey("lastUpdated"));
+        verify(teamcityJobRepository, never()).updateFields(eq(failingJob.getId()), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void listedJobsAreOnlyListedAgainOnceDue() {
+        settings.setAdaptivePolling(true);
+        TeamcityProject idle = job("Root_Build", true);
+        TeamcityProject building = job("Root_Test", true);
+        list(idle);
+        list(building, build("7", BuildStatus.Success));
+
+        task.collect(collector);
+        task.collect(collector);
+
+        verify(teamcityClient, times(2)).getInstanceProjects(eq(SERVER), anyMapOf(TeamcityProject.class, Long.class), listed.capture());
+        assertFalse(listed.getAllValues().get(1).test(listedJob(idle)));
+        assertFalse(listed.getAllValues().get(1).test(listedJob(building)));
+        assertEquals(2, jobPollScheduler.getQueued());
+    }
+
+    @Test
+    public void jobWhoseBuildsCouldNotBeListedIsListedAgain() {
+        settings.setAdaptivePolling(true);
+        TeamcityProject job = job("Root_Build", true);
+        list(job, build("42", BuildStatus.Success));
+        unlistable.add(job);
+
+        task.collect(collector);
+        task.collect(collector);
+
+        verify(teamcityClient, times(2)).getInstanceProjects(eq(SERVER), anyMapOf(TeamcityProject.class, Long.class), listed.capture());
+        assertTrue(listed.getAllValues().get(1).test(listedJob(job)));
+        assertEquals(0, jobPollScheduler.getQueued());
+    }
+
+    @Test
+    public void serverFailingWithARestErrorLeavesTheOthersAndKeepsItsJobs() {
+        collectWithFailingServer(new RestClientException("unavailable"));
+    }
+
+    @Test
+    public void serverFailingWithAnyErrorLeavesTheOthersAndKeepsItsJobs() {
+        collectWithFailingServer(new IllegalStateException("unexpected"));
+    }
+
+    private void collectWithFailingServer(RuntimeException failure) {
+        collector.getBuildServers().add(OTHER_SERVER);
+        TeamcityProject job = job("Root_Build", true);
+        TeamcityProject otherJob = job(OTHER_SERVER, "Other_Build", true);
+        list(job, build("42", BuildStatus.Success));
+        list(otherJob, build("7", BuildStatus.Success));
+        when(teamcityClient.getInstanceProjects(eq(OTHER_SERVER), anyMapOf(TeamcityProject.class, Long.class),
+                Matchers.<Predicate<TeamcityProject>>any())).thenThrow(failure);
+
+        task.collect(collector);
+
+        assertEquals(Long.valueOf(42), job.getLastBuildId());
+        assertNull(otherJob.getLastBuildId());
+        assertEquals(Collections.singletonList("42"), written);
+        verify(teamcityJobRepository, never()).delete(Matchers.<Iterable<TeamcityProject>>any());
+    }
+
+    private TeamcityProject job(String name, boolean enabled) {
+        return job(SERVER, name, enabled);
+    }
+
+    private TeamcityProject job(String server, String name, boolean enabled) {
+        TeamcityProject job = new TeamcityProject();
+        job.setId(new ObjectId());
+        job.setCollectorId(collector.getId());
+        job.setInstanceUrl(server);
+        job.setJobName(name);
+        job.setJobUrl(server + "/viewType.html?buildTypeId=" + name);
+        job.setEnabled(enabled);
+        job.getOptions().put("projectId", "Root");
+        jobs.add(job);
+        return job;
+    }
+
+    private void list(TeamcityProject job, Build... builds) {
+        listings.put(job, Arrays.asList(builds));
+    }
+
+    // the job as the client returns it, equal to the stored one but without its state
+    private static TeamcityProject listedJob(TeamcityProject job) {
+        TeamcityProject listedJob = new TeamcityProject();
+        listedJob.setInstanceUrl(job.getInstanceUrl());
+        listedJob.setJobName(job.getJobName());
+        listedJob.setJobUrl(job.getJobUrl());
+        listedJob.getOptions().put("projectId", "Root");
+        return listedJob;
+    }
+
+    private static Build build(String number, BuildStatus status) {
+        Build build = new Build();
+        build.setNumber(number);
+        build.setBuildUrl(url(number));
+        build.setBuildStatus(status);
+        return build;
+    }
+
+    private static String url(String number) {
+        return SERVER + "/app/rest/builds?locator=id:" + number;
+    }
+}
@@ -0,0 +1,144 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Build;
+import com.capitalone.dashboard.model.BuildStatus;
+import com.github.fakemongo.Fongo;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteUpsert;
+import com.mongodb.DBCollection;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TeamcityBuildRepositoryImplTests {
+
+    private static final ObjectId COLLECTOR_ITEM_ID = ObjectId.get();
+    private static final int DUPLICATE_KEY = 11000;
+
+    private MongoTemplate mongoTemplate;
+
+    @Before
+    public void init() {
+        mongoTemplate = new MongoTemplate(new Fongo("teamcity").getMongo(), "dashboard");
+    }
+
+    @Test
+    public void newBuildsAreInserted() {
+        new TeamcityBuildRepositoryImpl(mongoTemplate).upsertBuilds(Arrays.asList(build(COLLECTOR_ITEM_ID, "1"), build(COLLECTOR_ITEM_ID, "2")));
+
+        assertEquals(2, mongoTemplate.count(null, Build.class));
+    }
+
+    @Test
+    public void storedBuildIsReplacedByCollectorItemAndNumber() {
+        Build stored = build(COLLECTOR_ITEM_ID, "1");
+        mongoTemplate.insert(stored);
+        Build otherItem = build(ObjectId.get(), "1");
+        mongoTemplate.insert(otherItem);
+
+        Build update = build(COLLECTOR_ITEM_ID, "1");
+        update.setBuildStatus(BuildStatus.Failure);
+        new TeamcityBuildRepositoryImpl(mongoTemplate).upsertBuilds(Collections.singletonList(update));
+
+        assertEquals(2, mongoTemplate.count(null, Build.class));
+        assertEquals(BuildStatus.Failure, mongoTemplate.findById(stored.getId(), Build.class).getBuildStatus());
+        assertEquals(BuildStatus.Success, mongoTemplate.findById(otherItem.getId(), Build.class).getBuildStatus());
+    }
+
+    @Test
+    public void upsertedIdsAreSetOnTheirBuilds() {
+        BulkWriteOperation bulk = bulk();
+        BulkWriteResult result = result(new BulkWriteUpsert(1, new ObjectId("57b5c8b4e4b0b6b2b1a00001")));
+        when(bulk.execute()).thenReturn(result);
+        List<Build> builds = Arrays.asList(build(COLLECTOR_ITEM_ID, "1"), build(COLLECTOR_ITEM_ID, "2"));
+
+        new TeamcityBuildRepositoryImpl(operations(bulk)).upsertBuilds(builds);
+
+        verify(bulk).find(new BasicDBObject("collectorItemId", COLLECTOR_ITEM_ID).append("number", "1"));
+        verify(bulk).find(new BasicDBObject("collectorItemId", COLLECTOR_ITEM_ID).append("number", "2"));
+        assertNull(builds.get(0).getId());
+        assertEquals(new ObjectId("57b5c8b4e4b0b6b2b1a00001"), builds.get(1).getId());
+    }
+
+    @Test
+    public void duplicateKeyErrorsAreIgnored() {
+        BulkWriteOperation bulk = bulk();
+        BulkWriteException duplicates = writeErrors(result(new BulkWriteUpsert(1, new ObjectId("57b5c8b4e4b0b6b2b1a00002"))), DUPLICATE_KEY);
+        when(bulk.execute()).thenThrow(duplicates);
+        List<Build> builds = Arrays.asList(build(COLLECTOR_ITEM_ID, "1"), build(COLLECTOR_ITEM_ID, "2"));
+
+        new TeamcityBuildRepositoryImpl(operations(bulk)).upsertBuilds(builds);
+
+        assertNotNull(builds.get(1).getId());
+    }
+
+    @Test(expected = BulkWriteException.class)
+    public void otherWriteErrorsAreThrown() {
+        BulkWriteOperation bulk = bulk();
+        BulkWriteException errors = writeErrors(result(), DUPLICATE_KEY, 2);
+        when(bulk.execute()).thenThrow(errors);
+
+        new TeamcityBuildRepositoryImpl(operations(bulk)).upsertBuilds(Arrays.asList(build(COLLECTOR_ITEM_ID, "1"), build(COLLECTOR_ITEM_ID, "2")));
+    }
+
+    private MongoOperations operations(BulkWriteOperation bulk) {
+        DBCollection collection = mock(DBCollection.class);
+        when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+        MongoOperations operations = mock(MongoOperations.class);
+        when(operations.getConverter()).thenReturn(mongoTemplate.getConverter());
+        when(operations.execute(eq(Build.class), Matchers.<CollectionCallback<BulkWriteResult>>any())).thenAnswer(invocation ->
+                ((CollectionCallback<?>) invocation.getArguments()[1]).doInCollection(collection));
+        return operations;
+    }
+
+    private static BulkWriteOperation bulk() {
+        return mock(BulkWriteOperation.class, RETURNS_DEEP_STUBS);
+    }
+
+    private static BulkWriteResult result(BulkWriteUpsert... upserts) {
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getUpserts()).thenReturn(Arrays.asList(upserts));
+        return result;
+    }
+
+    private static BulkWriteException writeErrors(BulkWriteResult result, int... codes) {
+        BulkWriteException exception = mock(BulkWriteException.class);
+        BulkWriteError[] errors = new BulkWriteError[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            errors[i] = new BulkWriteError(codes[i], "write failed", new BasicDBObject(), i);
+        }
+        when(exception.getWriteErrors()).thenReturn(Arrays.asList(errors));
+        when(exception.getWriteResult()).thenReturn(result);
+        return exception;
+    }
+
+    private static Build build(ObjectId collectorItemId, String number) {
+        Build build = new Build();
+        build.setCollectorItemId(collectorItemId);
+        build.setNumber(number);
+        build.setBuildUrl("http://teamcity.company.com/viewLog.html?buildId=" + number);
+        build.setBuildStatus(BuildStatus.Success);
+        return build;
+    }
+}
@@ -0,0 +1,115 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.EnvironmentStage;
+import com.capitalone.dashboard.model.Pipeline;
+import com.capitalone.dashboard.model.PipelineCommit;
+import com.capitalone.dashboard.repository.TeamcityPipelineRepositoryCustom.CommitStages;
+import com.github.fakemongo.Fongo;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TeamcityPipelineRepositoryImplTests {
+
+    private static final ObjectId PRODUCT_ITEM_ID = ObjectId.get();
+
+    private MongoTemplate mongoTemplate;
+    private TeamcityPipelineRepositoryImpl repository;
+    private Pipeline pipeline;
+
+    @Before
+    public void init() {
+        mongoTemplate = new MongoTemplate(new Fongo("teamcity").getMongo(), "dashboard");
+        repository = new TeamcityPipelineRepositoryImpl(mongoTemplate);
+        pipeline = new Pipeline();
+        pipeline.setCollectorItemId(PRODUCT_ITEM_ID);
+        stage(pipeline, "Commit", commit("c2", 0), commit("c1", 0));
+        stage(pipeline, "Build", commit("c1", 1000));
+        mongoTemplate.save(pipeline);
+    }
+
+    @Test
+    public void pipelineIsReadWithANewToken() {
+        CommitStages read = repository.findCommitStages(PRODUCT_ITEM_ID);
+
+        assertNotNull(read.getVersion());
+        assertEquals(pipeline.getId(), read.getPipeline().getId());
+        assertEquals(Arrays.asList("c2@0", "c1@0"), commits(read.getPipeline(), "Commit"));
+        assertEquals(read.getVersion(), repository.findCommitStages(PRODUCT_ITEM_ID).getVersion());
+    }
+
+    @Test
+    public void buildStageIsReplacedWhenTheTokenIsUnchanged() {
+        CommitStages read = repository.findCommitStages(PRODUCT_ITEM_ID);
+
+        assertTrue(repository.updateBuildStageCommits(read, Arrays.asList(commit("c2", 2000), commit("c1", 1000))));
+
+        CommitStages written = repository.findCommitStages(PRODUCT_ITEM_ID);
+        assertNotEquals(read.getVersion(), written.getVersion());
+        assertEquals(Arrays.asList("c2@2000", "c1@1000"), commits(written.getPipeline(), "Build"));
+        assertEquals(Arrays.asList("c2@0", "c1@0"), commits(written.getPipeline(), "Commit"));
+    }
+
+    @Test
+    public void updateSinceTheReadIsAConflict() {
+        CommitStages read = repository.findCommitStages(PRODUCT_ITEM_ID);
+        CommitStages concurrentRead = repository.findCommitStages(PRODUCT_ITEM_ID);
+        assertTrue(repository.updateBuildStageCommits(concurrentRead, Collections.singletonList(commit("c2", 2000))));
+
+        assertFalse(repository.updateBuildStageCommits(read, Collections.singletonList(commit("c1", 3000))));
+
+        assertEquals(Collections.singletonList("c2@2000"), commits(repository.findCommitStages(PRODUCT_ITEM_ID).getPipeline(), "Build"));
+    }
+
+    @Test
+    public void wholePipelineSavedSinceTheReadIsAConflict() {
+        CommitStages read = repository.findCommitStages(PRODUCT_ITEM_ID);
+        // another collector saves the pipeline it read before, without the token
+        stage(pipeline, "Commit", commit("c3", 0), commit("c2", 0), commit("c1", 0));
+        mongoTemplate.save(pipeline);
+
+        assertFalse(repository.updateBuildStageCommits(read, Collections.singletonList(commit("c2", 2000))));
+
+        CommitStages reread = repository.findCommitStages(PRODUCT_ITEM_ID);
+        assertEquals(Arrays.asList("c3@0", "c2@0", "c1@0"), commits(reread.getPipeline(), "Commit"));
+        assertTrue(repository.updateBuildStageCommits(reread, Collections.singletonList(commit("c2", 2000))));
+    }
+
+    @Test
+    public void pipelineReadWithoutATokenIsAConflict() {
+        assertFalse(repository.updateBuildStageCommits(new CommitStages(pipeline, null), Collections.singletonList(commit("c2", 2000))));
+
+        assertEquals(Collections.singletonList("c1@1000"), commits(repository.findCommitStages(PRODUCT_ITEM_ID).getPipeline(), "Build"));
+    }
+
+    private static void stage(Pipeline pipeline, String name, PipelineCommit... commits) {
+        EnvironmentStage stage = new EnvironmentStage();
+        stage.setCommits(new LinkedHashSet<>(Arrays.asList(commits)));
+        pipeline.getEnvironmentStageMap().put(name, stage);
+    }
+
+    private static List<String> commits(Pipeline pipeline, String stage) {
+        return pipeline.getEnvironmentStageMap().get(stage).getCommits().stream()
+                .map(commit -> commit.getScmRevisionNumber() + "@" + commit.getTimestamp())
+                .collect(Collectors.toList());
+    }
+
+    private static PipelineCommit commit(String sha, long buildTimestamp) {
+        PipelineCommit commit = new PipelineCommit(buildTimestamp);
+        commit.setScmRevisionNumber(sha);
+        return commit;
+    }
+}